@@ -0,0 +1,101 @@
+package com.marklipson.musicgen;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Collects setting changes as the controls report them, each stamped with the play position at
+ * which it takes effect, and turns them into recording steps.
+ *
+ * Controls call {@link #changed(double, String, Object)} from any thread; the recording thread
+ * calls {@link #drain(JSONStream.ArrayWriter)} now and then to write out finished steps.  A step
+ * is only written once the next one starts, since that is when its duration becomes known.
+ */
+public class ChangeLog
+{
+  /**
+   * Changes closer together than this (seconds) are merged into one step.
+   */
+  static final double MIN_STEP = 0.1;
+
+  private static class Change
+  {
+    final double t;
+    final String key;
+    final Object value;
+    Change( double t, String key, Object value )
+    {
+      this.t = t;
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  private final Queue<Change> changes = new ConcurrentLinkedQueue<Change>();
+  private volatile boolean active;
+  // the step in progress, and when it started
+  private JSONSnapshot state;
+  private double tStep;
+
+  /**
+   * Start collecting changes.
+   *
+   * @param t        current play position
+   * @param initial  all settings as of now
+   */
+  public void start( double t, JSONSnapshot initial )
+  {
+    changes.clear();
+    state = initial;
+    tStep = t;
+    active = true;
+  }
+  public boolean isActive()
+  {
+    return active;
+  }
+  /**
+   * A control has changed.
+   *
+   * @param t  play position at which the change takes effect
+   */
+  public void changed( double t, String key, Object value )
+  {
+    if (active)
+      changes.add( new Change( t, key, value ) );
+  }
+  /**
+   * Write out any steps that are complete.
+   */
+  public void drain( JSONStream.ArrayWriter out ) throws IOException
+  {
+    for (Change c; (c = changes.poll()) != null;)
+    {
+      JSONSnapshot next = state.with( c.key, c.value );
+      if (next == state)
+        continue;
+      if (c.t - tStep >= MIN_STEP)
+        writeStep( out, c.t );
+      state = next;
+    }
+  }
+  /**
+   * Stop collecting, and write out the final step.
+   *
+   * @param t  current play position
+   */
+  public void stop( double t, JSONStream.ArrayWriter out ) throws IOException
+  {
+    active = false;
+    drain( out );
+    writeStep( out, t );
+  }
+  private void writeStep( JSONStream.ArrayWriter out, double tEnd ) throws IOException
+  {
+    // round the ends, not the length, so that durations add up
+    long ms = Math.round( tEnd * 1000 ) - Math.round( tStep * 1000 );
+    out.append( state.with( "duration", ms / 1000.0 ) );
+    tStep = tEnd;
+  }
+}
@@ -0,0 +1,150 @@
+package com.marklipson.musicgen;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiles custom functions as they are typed, away from the event thread.
+ *
+ * Each edit replaces the one before it, and compiling only starts once typing pauses, so a burst
+ * of keystrokes costs one compile.  Results, scale included, are kept by source text, so going
+ * back to a recent function costs nothing.  Only the most recent edit is ever passed on.
+ */
+public class FunctionCompiler
+{
+  /**
+   * Where compiled functions go.
+   */
+  public interface Target
+  {
+    void setCustomFunction( TimeFunction.CompiledFunction function );
+  }
+
+  // wait for typing to pause this long before compiling (ms)
+  static final long DEBOUNCE = 250;
+  // number of compiled functions to keep
+  static final int CACHED = 32;
+  // the tones' frequencies, which the synthesizer sets for every sample but which change slowly
+  // if at all
+  static final String[] HELD = { "a", "b" };
+
+  private final Target target;
+  private final long debounce;
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+  {
+    @Override
+    public Thread newThread( Runnable r )
+    {
+      Thread t = new Thread( r, "function compiler" );
+      t.setDaemon( true );
+      return t;
+    }
+  });
+  // least recently used first
+  private final Map<String,TimeFunction.CompiledFunction> cache = new LinkedHashMap<String,TimeFunction.CompiledFunction>( 16, 0.75f, true )
+  {
+    @Override
+    protected boolean removeEldestEntry( Map.Entry<String,TimeFunction.CompiledFunction> eldest )
+    {
+      return size() > CACHED;
+    }
+  };
+  private ScheduledFuture<?> scheduled;
+  // the text of the most recent edit
+  private volatile String latest;
+  private int compiles;
+
+  public FunctionCompiler( Target target )
+  {
+    this( target, DEBOUNCE );
+  }
+  FunctionCompiler( Target target, long debounce )
+  {
+    this.target = target;
+    this.debounce = debounce;
+  }
+
+  /**
+   * The function's text has changed.  Returns at once; if the text compiles, the target gets the
+   * function shortly.  Text that does not compile, or is empty, leaves the current function alone.
+   */
+  public synchronized void edited( final String source )
+  {
+    latest = source;
+    if (scheduled != null)
+      scheduled.cancel( false );
+    scheduled = executor.schedule( new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        if (! source.equals( latest ))
+          return;
+        TimeFunction.CompiledFunction fn = compile( source );
+        // passed on only if nothing was typed while compiling
+        if (fn != null  &&  source.equals( latest ))
+          target.setCustomFunction( fn );
+      }
+    }, debounce, TimeUnit.MILLISECONDS );
+  }
+  /**
+   * Compiled and scaled function for some text, or null if it is empty or does not compile.  Each
+   * call returns a new instance, since the caller sets its variables.
+   */
+  TimeFunction.CompiledFunction compile( String source )
+  {
+    String key = normalize( source );
+    TimeFunction.CompiledFunction fn;
+    synchronized( cache )
+    {
+      fn = cache.get( key );
+    }
+    if (fn == null)
+    {
+      // not holding any lock, so edits are never held up by a slow compile
+      try
+      {
+        fn = TimeFunction.compile( key, HELD );
+      }
+      catch( Exception x )
+      {
+        return null;
+      }
+      if (fn == null)
+        return null;
+      fn.autoSetScale();
+      synchronized( cache )
+      {
+        cache.put( key, fn );
+        compiles ++;
+      }
+    }
+    return fn.copy();
+  }
+  /**
+   * Number of times text has actually been compiled, as opposed to found in the cache.
+   */
+  int getCompiles()
+  {
+    synchronized( cache )
+    {
+      return compiles;
+    }
+  }
+  /**
+   * The text with spacing that cannot change its meaning taken out.
+   */
+  static String normalize( String source )
+  {
+    return source.trim().replaceAll( "\\s+", " " );
+  }
+  public void shutdown()
+  {
+    executor.shutdownNow();
+  }
+}
@@ -0,0 +1,96 @@
+package com.marklipson.musicgen;
+
+/**
+ * Counts of non-negative values in logarithmic buckets, each 1/16 of a power of two wide, so any
+ * value or percentile read back is within about 6% of the real one.  Recording never allocates.
+ *
+ * Only one thread may record.  Others can read at any time without locking; what they see may be
+ * a few values behind, which is fine for monitoring.
+ */
+public class Histogram
+{
+  // each power of two is split into this many buckets (values below 2*SUB get one bucket each)
+  private static final int SUB_BITS = 4;
+  private static final int SUB = 1 << SUB_BITS;
+  // values from 2^MAX_BITS up all land in the last bucket
+  private static final int MAX_BITS = 40;
+
+  private final long[] counts = new long[ (MAX_BITS - SUB_BITS + 1) * SUB + SUB ];
+  private volatile long count;
+  private long sum, max;
+
+  public void record( long v )
+  {
+    if (v < 0)
+      v = 0;
+    counts[ index( v ) ] ++;
+    sum += v;
+    if (v > max)
+      max = v;
+    count ++;
+  }
+  static int index( long v )
+  {
+    v = Math.min( v, (1L << MAX_BITS) - 1 );
+    int shift = Math.max( 0, 64 - Long.numberOfLeadingZeros( v ) - SUB_BITS - 1 );
+    return shift * SUB + (int)(v >> shift);
+  }
+  /**
+   * Smallest value that falls in a bucket.
+   */
+  static long lowest( int index )
+  {
+    if (index < 2 * SUB)
+      return index;
+    int shift = index / SUB - 1;
+    return (long)(index - shift * SUB) << shift;
+  }
+
+  public long getCount()
+  {
+    return count;
+  }
+  public long getMax()
+  {
+    return max;
+  }
+  public double getMean()
+  {
+    long c = count;
+    return (c == 0) ? 0 : (double)sum / c;
+  }
+  /**
+   * Value that the given percentage of recorded values are at or below, rounded up to the top of
+   * its bucket.
+   */
+  public long getPercentile( double percent )
+  {
+    long c = count;
+    if (c == 0)
+      return 0;
+    long want = Math.max( 1, (long)Math.ceil( c * percent / 100 ) );
+    long seen = 0;
+    for (int n=0; n < counts.length; n++)
+    {
+      seen += counts[n];
+      if (seen >= want)
+        return Math.min( lowest( n + 1 ) - 1, max );
+    }
+    return max;
+  }
+  /**
+   * Summary, with values divided by scale, i.e. 1000 to report nanoseconds as microseconds.
+   */
+  public JSON toJSON( double scale )
+  {
+    JSON json = JSON.createObject();
+    json.set( "count", getCount() );
+    json.set( "mean", getMean() / scale );
+    json.set( "p50", getPercentile( 50 ) / scale );
+    json.set( "p90", getPercentile( 90 ) / scale );
+    json.set( "p99", getPercentile( 99 ) / scale );
+    json.set( "p999", getPercentile( 99.9 ) / scale );
+    json.set( "max", getMax() / scale );
+    return json;
+  }
+}
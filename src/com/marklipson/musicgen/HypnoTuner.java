@@ -13,11 +13,11 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.Properties;
-import java.util.Set;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
@@ -36,9 +36,10 @@ import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.filechooser.FileFilter;
 import javax.swing.text.JTextComponent;
 
-import com.marklipson.musicgen.WaveSource.SmoothValue;
+import com.marklipson.musicgen.Parameters.Scale;
 
 public class HypnoTuner
 {
@@ -62,6 +63,10 @@ public class HypnoTuner
 
   // output
   Speakers speakers;
+  SpectrumAnalyzer analyzer = new SpectrumAnalyzer( wave.getRate() );
+  RenderMetrics metrics = new RenderMetrics();
+  // render buffers, reused for every block so that playing does not make garbage
+  private float[] bufL, bufR;
   JFrame frame;
   JSlider toneA;
   JSlider diffBlo, diffBhi;
@@ -70,86 +75,42 @@ public class HypnoTuner
   JSlider harmonics[];
   JSlider customLevel;
   JTextField customFunction;
+  // text of customFunction, kept by its listener so the settings can be saved from any thread
+  volatile String customFunctionText = "";
+  FunctionCompiler functionCompiler = new FunctionCompiler( wave );
+  // saved along with the parameters
+  static final String CUSTOM_FUNCTION = "custom function";
   JToggleButton btn_mute, btnRecord, btnAudioRecord;
   boolean initialLoad;
   
   JPanel lightBox;
-  Set<PersistedValue> persisted = new HashSet<PersistedValue>();
+  JPanel spectrumBox;
+  // what the sliders control, and the slider for each parameter
+  Parameters params = new Parameters();
+  JSlider sliders[];
   
   File settingsFile;
+  SettingsWriter settingsWriter;
+  // saved presets in the default folder, if it has been scanned
+  PresetLibrary library;
   File currentDir;
   
-  class PersistedValue
-  {
-    String name;
-    JComponent target;
-    public PersistedValue( String name, JComponent target )
-    {
-      this.name = name;
-      this.target = target;
-    }
-    private Object getValue()
-    {
-      if (target instanceof JSlider)
-        return ((JSlider)target).getValue();
-      if (target instanceof JTextComponent)
-        return ((JTextComponent)target).getText();
-      return null;
-    }
-    void save( Properties props )
-    {
-      Object value = getValue();
-      props.setProperty( name, String.valueOf( value ) );
-    }
-    void save( JSON props )
-    {
-      Object value = getValue();
-      props.set( name, value );
-    }
-    void load( Properties props )
-    {
-      String strValue = props.getProperty( name );
-      if (strValue == null)
-        return;
-      if (! strValue.matches( "\\-?\\d+" ))
-        return;
-      setValue(strValue);
-    }
-    private void setValue(Object value)
-    {
-      if (value == null)
-        return;
-      if (target instanceof JSlider)
-      {
-        try
-        {
-          int v = Integer.parseInt( value.toString() );
-          ((JSlider)target).setValue( v );
-        }
-        catch( NumberFormatException x )
-        {
-        }
-      }
-      else if (target instanceof JTextComponent)
-        ((JTextComponent)target).setText( value.toString() );
-    }
-    void load( JSON props )
-    {
-      Object v = props.get( name );
-      setValue( v );
-    }
-  }
-  
   void pulseLight()
   {
     new Thread()
     {
+      SpectrumAnalyzer.Snapshot shown;
       void update()
       {
         //System.out.println( tOffset );
         double tBal = wave.track_balance.retrieve();
         double tBeat = wave.track_beat.retrieve();
         setLevel( -Math.sin( tBeat ), Math.sin( tBal ) );
+        if (analyzer.getSnapshot() != shown)
+        {
+          shown = analyzer.getSnapshot();
+          spectrumBox.repaint();
+        }
       }
       public void run()
       {
@@ -189,49 +150,92 @@ public class HypnoTuner
     g.setColor( new Color(192,240,192) );
     g.fillOval( x2 - r2/2, h*3/4 - r2/2, r2, r2 );
   }
+  /**
+   * Draw the latest spectrum as bars, with the strongest tone, beat and L/R phase beside it.
+   */
+  void paintSpectrum( Graphics g )
+  {
+    SpectrumAnalyzer.Snapshot s = analyzer.getSnapshot();
+    if (s == null)
+      return;
+    int w = spectrumBox.getWidth();
+    int h = spectrumBox.getHeight();
+    int wText = 320;
+    int wBars = Math.max( 0, w - wText - 20 );
+    double floor = -90;
+    g.setColor( new Color(160,192,224) );
+    for (int b=0; b < s.bands.length; b++)
+    {
+      int x0 = 10 + wBars * b / s.bands.length;
+      int x1 = 10 + wBars * (b+1) / s.bands.length;
+      double level = Math.max( 0, Math.min( 1, (s.bands[b] - floor) / -floor ) );
+      int bar = (int)(level * h);
+      g.fillRect( x0, h - bar, Math.max( 1, x1 - x0 - 1 ), bar );
+    }
+    g.setColor( Color.DARK_GRAY );
+    String beat = Double.isNaN( s.beatHz ) ? "..." : String.format( "%.2f", s.beatHz );
+    String txt = String.format( "peak %.1f hz   beat %s hz   L-R %+.0f\u00b0", s.peakHz, beat, Math.toDegrees( s.phase ) );
+    g.drawString( txt, w - wText, h - 3 );
+  }
   
   HypnoTuner( File storeSettingsHere )
   {
     this.settingsFile = storeSettingsHere;
+    defineParameters();
+  }
+  /**
+   * Everything the sliders adjust.  Ids follow this order, so add new parameters at the end.
+   */
+  void defineParameters()
+  {
+    params.add( "A: (hz)", "hz", Scale.LOG, 0.001, 2500, 5500, 3723, wave.vA );
+    params.add( "B-delta-lo: (hz)", "hz", Scale.LOG, 0.001, -2500, 4000, 832, wave.vBlo );
+    params.add( "B-delta-hi: (hz)", "hz", Scale.LOG, 0.001, -2500, 4000, 1072, wave.vBhi );
+    params.add( "beatCycle: (s)", "s", Scale.LOG, 0.001, -1500, 5000, 3000, wave.vBeatCycle );
+    params.add( "balanceCycle: (s)", "s", Scale.LOG, 0.001, -1500, 5000, 2861, wave.vBalCycle );
+    int hDefaults[] = { 90000, 43928, 3000 };
+    for (int nh=0; nh < nHarmonics; nh++)
+    {
+      int dflt = (nh < hDefaults.length) ? hDefaults[nh] : 0;
+      params.add( "h(" + (nh+1) + "):", "%", Scale.LINEAR, 0.001, 0, 100000, dflt, wave.vH[nh] );
+    }
+    params.add( "custom level:", "", Scale.LINEAR, 0.00001, 0, 100000, 0, wave.customLevel );
+    sliders = new JSlider[ params.size() ];
   }
   
+  /**
+   * Keep the settings file up to date from now on.
+   */
   public void autoSaveSettings()
   {
-    Thread autoSaveSettings = new Thread( "auto-save settings" )
+    if (settingsFile == null)
+      return;
+    SettingsWriter.Source source = new SettingsWriter.Source()
     {
       @Override
-      public void run()
+      public JSONSnapshot getSettings( JSONSnapshot previous )
       {
-        try
-        {
-          JSON oldSettings = getCurrentSettings();
-          for (;;)
-          {
-            Thread.sleep( 2000 );
-            if (settingsFile != null)
-            {
-              JSON settings = getCurrentSettings();
-              if (settings.equals( oldSettings ))
-                continue;
-              try
-              {
-                FileWriter w = new FileWriter( settingsFile );
-                w.write( settings.toString() );
-                w.close();
-              }
-              catch( IOException x )
-              {
-                x.printStackTrace( System.err );
-              }
-            }
-          }
-        }
-        catch( InterruptedException x )
-        {
-        }
+        return getCurrentSettings( previous );
       }
     };
-    autoSaveSettings.start();
+    settingsWriter = new SettingsWriter( settingsFile, source, getCurrentSettings( JSONSnapshot.EMPTY_OBJECT ) );
+    params.addListener( new Parameters.Listener()
+    {
+      @Override
+      public void changed( Parameters.Parameter p, double value )
+      {
+        settingsChanged();
+      }
+    });
+    settingsWriter.start();
+  }
+  /**
+   * Something that is saved with the settings has changed.
+   */
+  void settingsChanged()
+  {
+    if (settingsWriter != null)
+      settingsWriter.changed();
   }
   protected void restoreSettings()
   {
@@ -250,15 +254,19 @@ public class HypnoTuner
         currentDir = new File( dir );
     }
   }
-  protected JSON getCurrentSettings()
+  /**
+   * Settings to save, as changes to the previous ones: if nothing has changed, that is what comes
+   * back.
+   */
+  protected JSONSnapshot getCurrentSettings( JSONSnapshot previous )
   {
-    JSON settings = JSON.createObject();
-    JSON controls = JSON.createObject();
-    getSaveState( controls );
-    settings.set( "controls", controls );
+    JSONSnapshot controls = previous.getComplex( "controls" );
+    if (controls == null)
+      controls = JSONSnapshot.EMPTY_OBJECT;
+    JSONSnapshot settings = previous.with( "controls", getSaveState( controls ) );
     if (currentDir != null)
-      settings.set( "folder", currentDir.toString() );
-    return settings;
+      return settings.with( "folder", currentDir.toString() );
+    return settings.without( "folder" );
   }
   public void setupSound() throws Exception
   {
@@ -272,30 +280,28 @@ public class HypnoTuner
     frame.setSize( 1000, 500 );
     JRootPane root = frame.getRootPane();
     root.setLayout( new GridLayout( 13 + nHarmonics, 1 ) );
-    toneA = new JSlider( 2500, 5500, 3723 );
+    toneA = sliderFor( "A" );
     toneA.setToolTipText( "base frequency" );
-    diffBlo = new JSlider( -2500, 4000, 832 );
-    diffBhi = new JSlider( -2500, 4000, 1072 );
+    diffBlo = sliderFor( "B-delta-lo" );
+    diffBhi = sliderFor( "B-delta-hi" );
     diffBlo.setToolTipText( "secondary frequency varies around base frequency by this much on the low end" );
     diffBhi.setToolTipText( "secondary frequency varies around base frequency by this much on the high end" );
-    balCycle = new JSlider( -1500, 5000, 2861 );
-    beatCycle = new JSlider( -1500, 5000, 3000 );
+    balCycle = sliderFor( "balanceCycle" );
+    beatCycle = sliderFor( "beatCycle" );
     balCycle.setToolTipText( "The base and secondary frequencies alternate between the left and right channels.  This parameter controls how long this cycle is." );
     beatCycle.setToolTipText( "The secondary frequency varies between the low and high values in a cycle lasting this many seconds." );
     harmonics = new JSlider[nHarmonics];
-    harmonics[0] = new JSlider( 0, 100000, 90000 );
+    for (int nH=0; nH < nHarmonics; nH++)
+      harmonics[nH] = sliderFor( "h_" + (nH+1) );
     harmonics[0].setToolTipText( "Percentage of 1st harmonic to include in both base and secondary tones." );
-    harmonics[1] = new JSlider( 0, 100000, 43928 );
     harmonics[1].setToolTipText( "Percentage of 2nd harmonic to include in both base and secondary tones." );
-    harmonics[2] = new JSlider( 0, 100000, 3000 );
     harmonics[2].setToolTipText( "Percentage of 3rd harmonic to include in both base and secondary tones." );
     for (int nH=3; nH < nHarmonics; nH++)
     {
-      harmonics[nH] = new JSlider( 0, 100000, 0 );
       harmonics[nH].setToolTipText( "Percentage of " + (nH+1) + "th harmonic." );
       // TODO different color
     }
-    customLevel = new JSlider( 0, 100000, 0 );
+    customLevel = sliderFor( "custom level" );
     customLevel.setToolTipText( "Level for custom waveform" );
     customFunction = new JTextField();
     customFunction.setToolTipText( "Custom waveform - f(t)" );
@@ -303,17 +309,8 @@ public class HypnoTuner
     {
       private void update()
       {
-        String expr = customFunction.getText();
-        try
-        {
-          TimeFunction.CompiledFunction fn = TimeFunction.compile( expr );
-          fn.autoSetScale();
-          if (fn != null)
-            wave.setCustomFunction( fn );
-        }
-        catch( Exception x )
-        {
-        }
+        customFunctionText = customFunction.getText();
+        functionCompiler.edited( customFunctionText );
       }
       @Override
       public void removeUpdate(DocumentEvent e)
@@ -332,17 +329,27 @@ public class HypnoTuner
       }
     });
     
-    root.add( decorateSlider( "A: (hz)", toneA, 0.001, true, wave.vA ) );
-    root.add( decorateSlider( "B-delta-lo: (hz)", diffBlo, 0.001, true, wave.vBlo ) );
-    root.add( decorateSlider( "B-delta-hi: (hz)", diffBhi, 0.001, true, wave.vBhi ) );
-    root.add( decorateSlider( "beatCycle: (s)", beatCycle, 0.001, true, wave.vBeatCycle ) );
-    root.add( decorateSlider( "balanceCycle: (s)", balCycle, 0.001, true, wave.vBalCycle ) );
+    root.add( decorateSlider( toneA ) );
+    root.add( decorateSlider( diffBlo ) );
+    root.add( decorateSlider( diffBhi ) );
+    root.add( decorateSlider( beatCycle ) );
+    root.add( decorateSlider( balCycle ) );
     lightBox = new JPanel();
     for (int nh=0; nh < harmonics.length; nh++)
-      root.add( decorateSlider( "h(" + (nh+1) + "):", harmonics[nh], 0.001, false, wave.vH[nh] ) );
-    root.add( decorateSlider( "custom level:", customLevel, 0.00001, false, wave.customLevel ) );
+      root.add( decorateSlider( harmonics[nh] ) );
+    root.add( decorateSlider( customLevel ) );
     root.add( decorateOther( "custom function:", customFunction ) );
-    root.add( new JLabel("") );
+    spectrumBox = new JPanel()
+    {
+      @Override
+      protected void paintComponent( Graphics g )
+      {
+        super.paintComponent( g );
+        paintSpectrum( g );
+      }
+    };
+    spectrumBox.setToolTipText( "Spectrum of the signal being generated" );
+    root.add( spectrumBox );
     root.add( new JLabel("") );
     Box controls = Box.createHorizontalBox();
     controls.add( Box.createHorizontalStrut( 10 ) );
@@ -380,6 +387,7 @@ public class HypnoTuner
           }
         }
         currentDir = c.getCurrentDirectory();
+        settingsChanged();
       }
     });
     controls.add( btn );
@@ -393,12 +401,35 @@ public class HypnoTuner
         JFileChooser c = new JFileChooser();
         c.setCurrentDirectory( currentDir );
         c.setDialogTitle( "Load Settings or Playlist" );
+        if (library != null)
+        {
+          FileFilter presets = new FileFilter()
+          {
+            @Override
+            public boolean accept( File f )
+            {
+              return f.isDirectory()  ||  library.contains( f );
+            }
+            @Override
+            public String getDescription()
+            {
+              return "Presets";
+            }
+          };
+          // offered, but not the default: the library only knows files it has already indexed
+          c.addChoosableFileFilter( presets );
+          c.setFileFilter( c.getAcceptAllFileFilter() );
+        }
         if (c.showOpenDialog( frame ) == JFileChooser.APPROVE_OPTION)
         {
           File loadFrom = c.getSelectedFile();
           try
           {
-            JSON json = JSON.loadFromFile( loadFrom );
+            JSON json;
+            if (SessionFile.isSessionFile( loadFrom ))
+              json = SessionFile.load( loadFrom );
+            else
+              json = JSON.loadFromFile( loadFrom );
             if (json != null)
             {
               if (json.isArray())
@@ -425,6 +456,7 @@ public class HypnoTuner
           }
         }
         currentDir = c.getCurrentDirectory();
+        settingsChanged();
       }
     });
     controls.add( btn );
@@ -454,9 +486,11 @@ public class HypnoTuner
         else
         {
           // save recording
-          String dataToRecord = recordedSettings.toString();
           btnRecord.setText( "record" );
           controlRecording( false );
+          File recorded = recordingFile;
+          if (recorded == null)
+            return;
           JFileChooser c = new JFileChooser();
           c.setDialogTitle( "Save Recording" );
           c.setCurrentDirectory( currentDir );
@@ -465,19 +499,24 @@ public class HypnoTuner
             File saveAs = c.getSelectedFile();
             if (saveAs.exists())
               if (JOptionPane.showConfirmDialog( frame, "File exists, overwrite?" ) != JOptionPane.OK_OPTION)
+              {
+                recorded.delete();
                 return;
+              }
             try
             {
-              FileWriter w = new FileWriter( saveAs );
-              w.write( dataToRecord );
-              w.close();
+              // the recording is already on disk, just move it into place
+              Files.move( recorded.toPath(), saveAs.toPath(), StandardCopyOption.REPLACE_EXISTING );
             }
             catch( Exception x )
             {
               JOptionPane.showMessageDialog( frame, x );
             }
           }
+          else
+            recorded.delete();
           currentDir = c.getCurrentDirectory();
+          settingsChanged();
         }
       }
     });
@@ -505,6 +544,7 @@ public class HypnoTuner
             btnAudioRecord.setText( "STREAMING" );
           }
           currentDir = c.getCurrentDirectory();
+          settingsChanged();
         }
         else
         {
@@ -555,70 +595,87 @@ public class HypnoTuner
     });
   }
   
-  private JSON recordedSettings;
+  // recordings are streamed to a temporary file as they happen
+  private JSONStream.ArrayWriter recordedSettings;
+  private File recordingFile;
   private Thread recordingThread;
+  // changes reported by the controls while recording
+  private ChangeLog changeLog = new ChangeLog();
 
   public void controlRecording( boolean start )
   {
     if (start)
     {
       if (recordingThread != null)
+      {
         controlRecording( false );
+        recordingFile.delete();
+      }
+      try
+      {
+        recordingFile = File.createTempFile( "recording", ".trance" );
+        recordedSettings = new JSONStream.ArrayWriter( recordingFile );
+      }
+      catch( IOException x )
+      {
+        recordingFile = null;
+        JOptionPane.showMessageDialog( frame, x );
+        return;
+      }
+      changeLog.start( wave.tGenerated(), getSaveState( JSONSnapshot.EMPTY_OBJECT ) );
+      final JSONStream.ArrayWriter writer = recordedSettings;
       recordingThread = new Thread() {
         @Override
         public void run()
         {
           try
           {
-            final double thresh = 50;
-            JSON prev = null;
-            long tPrev = System.currentTimeMillis();
+            int shown = -1;
             for (;;)
             {
-              Thread.sleep( 100 );
-              JSON settings = JSON.createObject();
-              getSaveState( settings );
-              if (prev == null)
-                prev = settings;
-              if (prev != null)
+              Thread.sleep( 250 );
+              changeLog.drain( writer );
+              int count = writer.getCount();
+              if (count != shown)
               {
-                boolean changed = false;
-                for (String key : settings.getFields())
-                {
-                  double vOld = prev.getDouble( key, 0 );
-                  double vNew = settings.getDouble( key, 0 );
-                  if (Math.abs( vOld - vNew ) > thresh)
-                    changed = true;
-                }
-                if (changed)
-                {
-                  long tNow = System.currentTimeMillis();
-                  double duration = (tNow - tPrev) / 1000.0;
-                  tPrev = tNow;
-                  settings.set( "duration", duration );
-                  recordedSettings.addArrayElement( settings );
-                  //TODO update button to show size of recording
-                  btnRecord.setText( "RECORDING:" + recordedSettings.getArraySize() );
-                  // compare against these settings
-                  prev = settings;
-                }
+                btnRecord.setText( "RECORDING:" + count );
+                shown = count;
               }
             }
           }
           catch( InterruptedException x )
           {
           }
+          catch( IOException x )
+          {
+            x.printStackTrace( System.err );
+          }
         }
       };
       recordingThread.start();
-      recordedSettings = JSON.createArray();
     }
     else
     {
       if (recordingThread == null)
         return;
       recordingThread.interrupt();
+      try
+      {
+        recordingThread.join();
+      }
+      catch( InterruptedException x )
+      {
+      }
       recordingThread = null;
+      try
+      {
+        changeLog.stop( wave.tGenerated(), recordedSettings );
+        recordedSettings.close();
+      }
+      catch( IOException x )
+      {
+        x.printStackTrace( System.err );
+      }
     }
   }
 
@@ -668,17 +725,54 @@ public class HypnoTuner
     lbl.setPreferredSize( new Dimension( 120, lbl.getSize().height ) );
     box.add( lbl );
     box.add( component );
-    String tag = label;
-    tag = tag.replaceFirst( "([^:]*).*", "$1" );
-    tag = tag.replaceFirst( "(.*)\\((.*)\\)", "$1_$2" );
-    persisted.add( new PersistedValue( tag, component ) );
+    final String tag = Parameters.keyFor( label );
+    if (component instanceof JTextComponent)
+    {
+      final JTextComponent text = (JTextComponent)component;
+      text.getDocument().addDocumentListener( new DocumentListener()
+      {
+        private void update()
+        {
+          if (changeLog.isActive())
+            changeLog.changed( wave.tGenerated(), tag, text.getText() );
+          settingsChanged();
+        }
+        @Override
+        public void removeUpdate(DocumentEvent e)
+        {
+          update();
+        }
+        @Override
+        public void insertUpdate(DocumentEvent e)
+        {
+          update();
+        }
+        @Override
+        public void changedUpdate(DocumentEvent e)
+        {
+          update();
+        }
+      });
+    }
     return box;
   }
-  JComponent decorateSlider( String label, final JSlider slider, final double factor, final boolean log, final SmoothValue v )
+  /**
+   * Slider for a parameter, starting at its default.
+   */
+  JSlider sliderFor( String key )
   {
+    Parameters.Parameter p = params.get( key );
+    JSlider slider = new JSlider( p.minPosition, p.maxPosition, p.defaultPosition );
+    slider.putClientProperty( Parameters.Parameter.class, p );
+    sliders[p.id] = slider;
+    return slider;
+  }
+  JComponent decorateSlider( final JSlider slider )
+  {
+    final Parameters.Parameter p = (Parameters.Parameter)slider.getClientProperty( Parameters.Parameter.class );
     Box box = Box.createHorizontalBox();
     box.setBorder( BorderFactory.createEmptyBorder( 0/*T*/, 10/*L*/, 0/*B*/, 10/*R*/ ) );
-    JLabel lbl = new JLabel( label );
+    JLabel lbl = new JLabel( p.label );
     lbl.setPreferredSize( new Dimension( 120, lbl.getSize().height ) );
     box.add( lbl );
     final JLabel showValue = new JLabel( "..." );
@@ -691,46 +785,64 @@ public class HypnoTuner
       public void stateChanged( ChangeEvent evt )
       {
         int vSlider = slider.getValue();
-        double value = vSlider * factor;
-        if (log)
-          value = Math.exp( value );
+        double value = p.valueAt( vSlider );
         String str = String.format( "%.2f", value );
         showValue.setText( str );
-        v.setValue( value, initialLoad );
+        params.set( p.id, value, initialLoad );
+        changeLog.changed( wave.tGenerated(), p.key, vSlider );
       }
     };
     slider.addChangeListener( updateValue );
     updateValue.stateChanged( null );
-    String tag = label;
-    tag = tag.replaceFirst( "([^:]*).*", "$1" );
-    tag = tag.replaceFirst( "(.*)\\((.*)\\)", "$1_$2" );
-    persisted.add( new PersistedValue( tag, slider ) );
     return box;
   }
-  protected Properties getSaveState()
+  protected void getSaveState( JSON json )
   {
-    Properties props = new Properties();
-    for (PersistedValue v : persisted)
-      v.save( props );
-    return props;
+    params.write( params.snapshot(), json );
+    json.set( CUSTOM_FUNCTION, customFunctionText );
   }
-  protected void getSaveState( JSON json )
+  /**
+   * Current settings, as changes to the given ones.
+   */
+  protected JSONSnapshot getSaveState( JSONSnapshot previous )
   {
-    for (PersistedValue v : persisted)
-      v.save( json );
+    return params.write( params.snapshot(), previous ).with( CUSTOM_FUNCTION, customFunctionText );
   }
   protected void setSaveState( Properties props )
   {
-    for (PersistedValue v : persisted)
-      v.load( props );
+    setControls( params.read( props ), null );
   }
   protected void setSaveState( JSON props )
   {
-    for (PersistedValue v : persisted)
-      v.load( props );
+    setControls( params.read( props ), props.getString( CUSTOM_FUNCTION ) );
+  }
+  protected void setSaveState( JSONSnapshot props )
+  {
+    setControls( params.read( props ), props.getString( CUSTOM_FUNCTION, null ) );
+  }
+  /**
+   * Move the sliders to the given values, except for NaNs; they pass the changes on as usual.
+   */
+  void setControls( double[] values, String function )
+  {
+    for (int n=0; n < values.length; n++)
+      if (! Double.isNaN( values[n] ))
+        sliders[n].setValue( params.get( n ).positionOf( values[n] ) );
+    if (function != null)
+      customFunction.setText( function );
+  }
+  /**
+   * Apply saved values directly to the synthesizer.  This is safe to call from the audio thread;
+   * the controls still need to be brought up to date with {@link #setControls(double[], String)}.
+   */
+  protected void applySaveState( double[] values )
+  {
+    params.apply( values );
   }
 
-  static private boolean enableLog = false;
+  // debug log, written to the directory given with -Dhypnotuner.log=...
+  static private String logDir = System.getProperty( "hypnotuner.log" );
+  static private boolean enableLog = (logDir != null);
   static private long logT0 = System.nanoTime();
   static private PrintStream logStream;
   static private void log( String msg )
@@ -742,7 +854,7 @@ public class HypnoTuner
       if (logStream == null)
       {
         String date = new SimpleDateFormat( "HHmm" ).format( new Date() );
-        logStream = new PrintStream( "/Users/marklipson/Desktop/hypnotuner-debug-" + date + ".log" );
+        logStream = new PrintStream( new File( logDir, "hypnotuner-debug-" + date + ".log" ) );
       }
       logStream.println( (System.nanoTime()-logT0)/1e9 + "\t" + msg );
       logStream.flush();
@@ -760,22 +872,36 @@ public class HypnoTuner
     if (wave.isFading())
       maxBufferLevel = 5; // we can buffer as much as we like now
     int bufferDelay = 10;
-    log( speakers.getBufferLevel() + "\tdelay" );
+    if (enableLog)
+      log( speakers.getBufferLevel() + "\tdelay" );
     while (speakers.getBufferLevel() > maxBufferLevel)
     {
       Thread.sleep( bufferDelay );
       //System.out.println( "d: " + speakers.getBufferLevel() );
     }
-    log( speakers.getBufferLevel() + "\tgenerate" );
+    if (enableLog)
+      log( speakers.getBufferLevel() + "\tgenerate" );
     // values for loop
     int nSamples = (int)(wave.getRate() * nSeconds);
-    float vLR[][] = wave.generate( nSamples );
+    if (bufL == null  ||  bufL.length != nSamples)
+    {
+      bufL = new float[ nSamples ];
+      bufR = new float[ nSamples ];
+    }
+    long t0 = System.nanoTime();
+    wave.generate( bufL, bufR, 0, nSamples );
+    long tGenerate = System.nanoTime() - t0;
+    analyzer.offer( bufL, bufR );
     if (audioEncoder != null)
-      audioEncoder.write( vLR[0], vLR[1] );
+      audioEncoder.write( bufL, bufR );
     //System.out.println( "first=" + vL[0] + ", last=" + vL[vL.length-1] );
-    log( speakers.getBufferLevel() + "\tplay" );
-    speakers.play( vLR[0], vLR[1] );
-    log( speakers.getBufferLevel() + "\tdone" );
+    float bufferLevel = speakers.getBufferLevel();
+    metrics.block( (double)nSamples / wave.getRate(), tGenerate, bufferLevel );
+    if (enableLog)
+      log( bufferLevel + "\tplay" );
+    speakers.play( bufL, bufR );
+    if (enableLog)
+      log( speakers.getBufferLevel() + "\tdone" );
   }
     
   private void playContinuously()
@@ -804,6 +930,42 @@ public class HypnoTuner
     };
     thread.start();
   }
+  /**
+   * Serve live status as JSON, if a port is given with -Dhypnotuner.port=...
+   */
+  void serveStatus()
+  {
+    Integer port = Integer.getInteger( "hypnotuner.port" );
+    if (port == null)
+      return;
+    try
+    {
+      StatusServer server = new StatusServer( port );
+      server.publish( "/spectrum", new StatusServer.Source()
+      {
+        @Override
+        public JSON getStatus()
+        {
+          SpectrumAnalyzer.Snapshot s = analyzer.getSnapshot();
+          return (s == null) ? null : s.toJSON();
+        }
+      });
+      server.publish( "/metrics", new StatusServer.Source()
+      {
+        @Override
+        public JSON getStatus()
+        {
+          return metrics.toJSON();
+        }
+      });
+      server.start();
+      System.out.println( "status at http://localhost:" + port + "/spectrum and /metrics" );
+    }
+    catch( IOException x )
+    {
+      x.printStackTrace( System.err );
+    }
+  }
   public static void main( String[] args )
   {
     File home = new File( System.getProperty( "user.home" ) );
@@ -818,10 +980,18 @@ public class HypnoTuner
       tuner.buildFrame();
       tuner.restoreSettings();
       tuner.autoSaveSettings();
+      tuner.library = new PresetLibrary( defaultFolder, tuner.params, new File( home, "hypnotuner.presets" ) );
+      tuner.library.start();
       tuner.setupSound();
       System.out.println( "starting" );
+      tuner.analyzer.start();
+      tuner.wave.setMetrics( tuner.metrics );
+      // -Dhypnotuner.math=fast or ultra-fast, for slower machines
+      tuner.wave.setMathKernel( MathKernel.forName( System.getProperty( "hypnotuner.math", "exact" ) ) );
+      tuner.metrics.register();
       tuner.playContinuously();
       tuner.pulseLight();
+      tuner.serveStatus();
     }
     catch( Exception x )
     {
@@ -839,7 +1009,7 @@ public class HypnoTuner
 //TODO separate options panel...
 //  - anti-glitch options (or better, make it never click, or auto-adjust, etc.)
 //  - whether to show lots of harmonics
-//TODO limit view to relevant files?  default '.trance' file extension?
+//TODO default '.trance' file extension?
 
 
 //speculative:
@@ -5,15 +5,12 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Array;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -21,8 +18,6 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * JSON parser/formatter.
@@ -267,14 +262,12 @@ public class JSON implements Cloneable, Iterable<JSON>
         return null;
       next();
       final JSON out = JSON.createArray();
-      int length = 0;
       for (;;)
       {
         final Object value = value();
         if (value == null)
           break;
-        out.set(String.valueOf(length), value, false);
-        length++;
+        out.addArrayElement(value);
         ws();
         if (cur() == ',')
         {
@@ -305,7 +298,9 @@ public class JSON implements Cloneable, Iterable<JSON>
     }
   }
 
+  // values of an object (or of a simple value, under ""), and of an array
   private Map<String, Object> fields;
+  private List<Object> elements;
   private boolean isArray;
   private boolean isSimple;
 
@@ -330,8 +325,8 @@ public class JSON implements Cloneable, Iterable<JSON>
   public static JSON createArray()
   {
     final JSON json = new JSON();
-    json.fields = new HashMap<String, Object>();
-    json.fields = Collections.synchronizedMap(json.fields);
+    json.elements = new ArrayList<Object>();
+    json.elements = Collections.synchronizedList(json.elements);
     json.isArray = true;
     return json;
   }
@@ -347,8 +342,11 @@ public class JSON implements Cloneable, Iterable<JSON>
       return;
     if (other.isSimple)
     {
+      if (fields == null)
+        fields = Collections.synchronizedMap(new LinkedHashMap<String, Object>());
       fields.clear();
       fields.putAll(other.fields);
+      elements = null;
       isSimple = true;
       isArray = false;
       return;
@@ -358,9 +356,8 @@ public class JSON implements Cloneable, Iterable<JSON>
       int newSize = other.getArraySize();
       for (int n = 0; n < newSize; n++)
       {
-        final String key = String.valueOf(n);
-        final Object oldSub = fields.get(key);
-        final Object newSub = other.fields.get(key);
+        final Object oldSub = element(n);
+        final Object newSub = other.element(n);
         if (!_isMarker(newSub, _same))
         {
           if (_isMarker(newSub, _remove))
@@ -380,6 +377,13 @@ public class JSON implements Cloneable, Iterable<JSON>
     for (final String key : other.getFields())
     {
       final Object newValue = other.fields.get(key);
+      if (isArray)
+      {
+        // only numbered fields mean anything to an array
+        if (!_isMarker(newValue, _same))
+          set(key, _isMarker(newValue, _remove) ? REMOVE : newValue, false);
+        continue;
+      }
       if (!_isMarker(newValue, _same))
       {
         if (_isMarker(newValue, _remove))
@@ -446,7 +450,7 @@ public class JSON implements Cloneable, Iterable<JSON>
       if (v.isNaN() || v.isInfinite())
         value = NULL;
     }
-    if (fields == null)
+    if (fields == null && !isArray)
     {
       fields = new LinkedHashMap<String, Object>();
       fields = Collections.synchronizedMap(fields);
@@ -471,45 +475,18 @@ public class JSON implements Cloneable, Iterable<JSON>
         return;
       }
     }
-    if (value == REMOVE)
+    if (isArray)
     {
-      if (isArray() && testArrayIndex(name))
-        removeArrayElement(Integer.parseInt(cleanArrayIndex(name)));
-      else
-        fields.remove(name);
+      // arrays only have numbered elements; anything else is ignored
+      final int index = arrayIndex(name);
+      if (index >= 0)
+        set(index, value);
+      return;
     }
+    if (value == REMOVE)
+      fields.remove(name);
     else
-    {
-      if (value instanceof JSON && ((JSON) value).isSimple())
-        value = ((JSON) value).getSimpleValue_Object();
-      else if (value.getClass().isArray())
-      {
-        // clone arrays before inserting
-        final int len = Array.getLength(value);
-        final JSON arr = JSON.createArray();
-        for (int nA = 0; nA < len; nA++)
-        {
-          final Object v = Array.get(value, nA);
-          arr.set(nA, v);
-        }
-        value = arr;
-      }
-      // inserting into an array? adjust array for insertion
-      if (isArray() && testArrayIndex(name))
-      {
-        // make array index a clean integer-string
-        name = cleanArrayIndex(name);
-        // fill in missing values prior to index
-        final int nIndex = Integer.parseInt(name);
-        for (int n = getArraySize(); n < nIndex; n++)
-        {
-          final String key = String.valueOf(n);
-          if (!fields.containsKey(key))
-            fields.put(key, NULL);
-        }
-      }
-      fields.put(name, value);
-    }
+      fields.put(name, storable(value));
   }
 
   /**
@@ -517,15 +494,83 @@ public class JSON implements Cloneable, Iterable<JSON>
    */
   public void set( final int index, Object value )
   {
-    // FIXME
+    if (!isArray)
+    {
+      set(String.valueOf(index), value);
+      return;
+    }
+    if (index < 0)
+      return;
+    if (value == REMOVE)
+    {
+      removeArrayElement(index);
+      return;
+    }
+    value = storable(value);
+    synchronized (elements)
+    {
+      // fill in missing values prior to index
+      while (elements.size() < index)
+        elements.add(NULL);
+      if (index < elements.size())
+        elements.set(index, value);
+      else
+        elements.add(value);
+    }
+  }
+
+  /**
+   * The form in which a value is kept: nulls and non-numbers become NULL, simple values are
+   * unwrapped and Java arrays are copied into JSON arrays.
+   */
+  private static Object storable( Object value )
+  {
     if (value == null)
-      value = NULL;
-    set(String.valueOf(index), value);
+      return NULL;
+    if (value instanceof Double)
+    {
+      final Double v = (Double) value;
+      if (v.isNaN() || v.isInfinite())
+        return NULL;
+    }
+    if (value instanceof Float)
+    {
+      final Float v = (Float) value;
+      if (v.isNaN() || v.isInfinite())
+        return NULL;
+    }
+    if (value instanceof JSON && ((JSON) value).isSimple())
+      return ((JSON) value).getSimpleValue_Object();
+    if (value.getClass().isArray())
+    {
+      // clone arrays before inserting
+      final int len = Array.getLength(value);
+      final JSON arr = JSON.createArray();
+      for (int nA = 0; nA < len; nA++)
+        arr.elements.add(storable(Array.get(value, nA)));
+      return arr;
+    }
+    return value;
+  }
+
+  /**
+   * Raw value of an array element (or of a numbered field of an object), or null if there is none.
+   */
+  private Object element( final int index )
+  {
+    if (isArray)
+    {
+      synchronized (elements)
+      {
+        return (index >= 0 && index < elements.size()) ? elements.get(index) : null;
+      }
+    }
+    return (fields == null) ? null : fields.get(String.valueOf(index));
   }
 
   public void remove( final Collection<String> names, final boolean deep )
   {
-    if (names == null || fields == null)
+    if (names == null || (fields == null && elements == null))
       return;
 
     for (final String name : names)
@@ -534,7 +579,7 @@ public class JSON implements Cloneable, Iterable<JSON>
     if (!deep)
       return;
 
-    for (final Object o : fields.values())
+    for (final Object o : isArray ? elements : fields.values())
     {
       if (o instanceof JSON)
         ((JSON) o).remove(names, deep);
@@ -570,6 +615,8 @@ public class JSON implements Cloneable, Iterable<JSON>
    */
   public boolean isEmpty()
   {
+    if (isArray)
+      return elements.isEmpty();
     return fields == null || fields.size() == 0;
   }
 
@@ -614,6 +661,13 @@ public class JSON implements Cloneable, Iterable<JSON>
    */
   public String[] getFields()
   {
+    if (isArray)
+    {
+      final String[] out = new String[getArraySize()];
+      for (int n = 0; n < out.length; n++)
+        out[n] = String.valueOf(n);
+      return out;
+    }
     if (fields == null)
       return new String[0];
     return fields.keySet().toArray(new String[fields.size()]);
@@ -625,11 +679,7 @@ public class JSON implements Cloneable, Iterable<JSON>
   public int getArraySize()
   {
     if (isArray)
-    {
-      if (fields == null)
-        return 0;
-      return fields.size();
-    }
+      return elements.size();
     else
       return 0;
   }
@@ -660,27 +710,26 @@ public class JSON implements Cloneable, Iterable<JSON>
    */
   public JSON removeArrayElement( final int index )
   {
-    if (index < 0)
+    if (index < 0 || !isArray)
       return null;
-    final int size = getArraySize();
-    if (index >= size)
-      return null;
-    final JSON elem = getComplex(index);
-    for (int n = index; n < size - 1; n++)
-      fields.put(String.valueOf(n), fields.get(String.valueOf(n + 1)));
-    fields.remove(String.valueOf(size - 1));
-    return elem;
+    final Object v;
+    synchronized (elements)
+    {
+      if (index >= elements.size())
+        return null;
+      v = elements.remove(index);
+    }
+    return wrap(v);
   }
 
   /**
    * Add array element.
    */
-  public void addArrayElement( Object newValue )
+  public void addArrayElement( final Object newValue )
   {
-    // FIXME
-    if (newValue == null)
-      newValue = NULL;
-    if (newValue != null)
+    if (isArray)
+      elements.add(storable(newValue));
+    else
       set(getArraySize(), newValue);
   }
 
@@ -694,7 +743,7 @@ public class JSON implements Cloneable, Iterable<JSON>
 
   public Object get( final String field, final boolean parse )
   {
-    if (field == null || fields == null)
+    if (field == null || (fields == null && !isArray))
       return null;
     if (parse && field.indexOf('.') != -1)
     {
@@ -707,7 +756,7 @@ public class JSON implements Cloneable, Iterable<JSON>
     }
     else
     {
-      Object out = fields.get(field);
+      Object out = isArray ? element(arrayIndex(field)) : fields.get(field);
       if (out == NULL)
         out = null;
       return out;
@@ -720,7 +769,14 @@ public class JSON implements Cloneable, Iterable<JSON>
    */
   public String getString( final int index )
   {
-    return getString(String.valueOf(index), null, true);
+    if (!isArray)
+      return getString(String.valueOf(index), null, true);
+    final JSON v = getComplex(index);
+    if (v == null)
+      return null;
+    if (v.isSimple)
+      return v.getSimpleValue();
+    return v.toString();
   }
 
   public String getString( final String field )
@@ -819,7 +875,9 @@ public class JSON implements Cloneable, Iterable<JSON>
    */
   public JSON getComplex( final int index )
   {
-    return getComplex(String.valueOf(index));
+    if (!isArray)
+      return getComplex(String.valueOf(index));
+    return wrap(element(index));
   }
 
   public JSON getComplex( final String field )
@@ -842,9 +900,18 @@ public class JSON implements Cloneable, Iterable<JSON>
       }
     }
     // get requested field
+    if (isArray)
+      return wrap(element(arrayIndex(field)));
     if (fields == null)
       return null;
-    final Object v = fields.get(field);
+    return wrap(fields.get(field));
+  }
+
+  /**
+   * A stored value as JSON.
+   */
+  private static JSON wrap( final Object v )
+  {
     if (v == null)
       return null;
     if (v instanceof JSON)
@@ -878,6 +945,7 @@ public class JSON implements Cloneable, Iterable<JSON>
     final int prime = 31;
     int result = 1;
     result = prime * result + ((fields == null) ? 0 : fields.hashCode());
+    result = prime * result + ((elements == null) ? 0 : elements.hashCode());
     result = prime * result + (isArray ? 1231 : 1237);
     result = prime * result + (isSimple ? 1231 : 1237);
     return result;
@@ -911,6 +979,13 @@ public class JSON implements Cloneable, Iterable<JSON>
     }
     else if (!fields.equals(other.fields))
       return false;
+    if (elements == null)
+    {
+      if (other.elements != null)
+        return false;
+    }
+    else if (!elements.equals(other.elements))
+      return false;
     if (isArray != other.isArray)
       return false;
     if (isSimple != other.isSimple)
@@ -1035,38 +1110,22 @@ public class JSON implements Cloneable, Iterable<JSON>
     {
       indent(level, out);
       out.append("[");
-      final int size = getArraySize();
       final int deeper = (level < 0) ? -1 : level + 1;
-      int nSent = 0;
-      if (size > 0)
-        for (int n = 0;; n++)
+      final Object[] values = elements.toArray();
+      for (int n = 0; n < values.length; n++)
+      {
+        final Object v = values[n];
+        if (n != 0)
+          out.append(',');
+        indent(deeper, out);
+        if (v instanceof JSON)
+          out.append(((JSON) v).toString(deeper, sort));
+        else
         {
-          final Object v = fields.get(String.valueOf(n));
-          // support for deleted array elements is very limited, but is handled
-          // for simple cases
-          // TODO this shouldn't be required!!!
-          if (v == null)
-          {
-            // keep going until 'size' elements have been written
-            if (nSent >= size)
-              break;
-            // but not forever
-            if (n > (size + 1) * 2)
-              break;
-            continue;
-          }
-          if (nSent != 0)
-            out.append(',');
-          nSent++;
           indent(deeper, out);
-          if (v instanceof JSON)
-            out.append(((JSON) v).toString(deeper, sort));
-          else
-          {
-            indent(deeper, out);
-            enquote(v, out);
-          }
+          enquote(v, out);
         }
+      }
       indent(level, out);
       out.append(']');
     }
@@ -1246,7 +1305,7 @@ public class JSON implements Cloneable, Iterable<JSON>
       final JSON out = JSON.createArray();
       final int len = Array.getLength(in);
       for (int n = 0; n < len; n++)
-        out.set(String.valueOf(n), objectToJSON(Array.get(in, n), skipDefaults, included));
+        out.addArrayElement(objectToJSON(Array.get(in, n), skipDefaults, included));
       return out;
     }
     // list
@@ -1256,7 +1315,7 @@ public class JSON implements Cloneable, Iterable<JSON>
       final List<?> list = (List<?>) in;
       final int len = list.size();
       for (int n = 0; n < len; n++)
-        out.set(String.valueOf(n), objectToJSON(list.get(n), skipDefaults, included));
+        out.addArrayElement(objectToJSON(list.get(n), skipDefaults, included));
       return out;
     }
     // map
@@ -1287,44 +1346,44 @@ public class JSON implements Cloneable, Iterable<JSON>
       }
       return out;
     }
-    // object
+    // object: public fields, then getters
     final JSON out = JSON.createObject();
-    for (final Field f : objClass.getFields())
-    {
-      if (Modifier.isStatic(f.getModifiers()))
-        continue;
-      final String name = f.getName();
-      final Object value = f.get(in);
-      final boolean shouldSkip = skipDefaults && isDefaultPrimitiveValue(value);
-      if (!shouldSkip)
-      {
-        out.set(name, objectToJSON(value, skipDefaults, included));
-      }
-    }
-    for (final Method m : objClass.getMethods())
+    for (final JSONBinding.Property p : JSONBinding.of(objClass).properties)
     {
-      if (Modifier.isStatic(m.getModifiers()))
-        continue;
-      if (!m.getName().startsWith("get") && !m.getName().startsWith("is"))
-        continue;
-      if (m.getParameterTypes().length != 0)
-        continue;
-      if (m.getName().equals("getClass") || m.getName().equals("get"))
+      final Object value = p.get(in);
+      if (skipDefaults && isDefaultPrimitiveValue(value))
         continue;
-      final int baseLen = m.getName().startsWith("get") ? 3 : 2;
-      final String name = Character.toLowerCase(m.getName().charAt(baseLen)) + m.getName().substring(baseLen + 1);
-      Object value = m.invoke(in, new Object[0]);
-      if (!isSimple(value))
-        value = objectToJSON(value, skipDefaults, included);
-      final boolean shouldSkip = skipDefaults && isDefaultPrimitiveValue(value);
-      if (!shouldSkip)
-      {
-        out.set(name, value);
-      }
+      if (p.simple || isSimple(value))
+        out.fields.put(p.name, storable(value));
+      else
+        out.set(p.name, objectToJSON(value, skipDefaults, included), false);
     }
     return out;
   }
 
+  /**
+   * Create an object of the given type (which needs a no-argument constructor) and fill it in
+   * from a JSON object, the reverse of {@link #objectToJSON(Object)}.
+   */
+  public static <T> T jsonToObject( final JSON in, final Class<T> type ) throws Exception
+  {
+    if (in == null)
+      return null;
+    final Object out = JSONBinding.convert(in, type);
+    return type.isInstance(out) ? type.cast(out) : null;
+  }
+
+  /**
+   * Set an object's public fields and properties (those with setters) from a JSON object.  Values
+   * that are missing or null, or that do not fit the property's type, are left alone.
+   */
+  public static void jsonToObject( final JSON in, final Object target ) throws Exception
+  {
+    if (in == null || !in.isObject())
+      return;
+    JSONBinding.of(target.getClass()).bind(in, target);
+  }
+
   /**
    * Convert an exception to JSON.
    */
@@ -1351,9 +1410,17 @@ public class JSON implements Cloneable, Iterable<JSON>
   public JSON clone()
   {
     final JSON out = new JSON();
-    out.fields = new LinkedHashMap<String, Object>();
     out.isArray = isArray;
     out.isSimple = isSimple;
+    if (isArray)
+    {
+      final Object[] values = elements.toArray();
+      out.elements = new ArrayList<Object>(values.length);
+      for (final Object value : values)
+        out.elements.add((value instanceof JSON) ? ((JSON) value).clone() : value);
+      return out;
+    }
+    out.fields = new LinkedHashMap<String, Object>();
     for (final String key : fields.keySet())
     {
       final Object value = fields.get(key);
@@ -1367,21 +1434,45 @@ public class JSON implements Cloneable, Iterable<JSON>
     return out;
   }
 
-  private static final Pattern ptn_arrayIndex = Pattern.compile("\\s*\\+?\\s*(\\d+)(\\.0*)?\\s*", Pattern.DOTALL);
-
   static boolean testArrayIndex( final String key )
   {
-    return ptn_arrayIndex.matcher(key).matches();
+    return arrayIndex(key) >= 0;
   }
 
-  static String cleanArrayIndex( final String key )
+  /**
+   * The array index a key stands for, i.e. 3 for "3", " +3 " or "3.0", or -1 if it is not one.
+   */
+  static int arrayIndex( final String key )
   {
-    final Matcher m = ptn_arrayIndex.matcher(key);
-    m.find();
-    String out = m.group(1);
-    if (out.startsWith("0") && out.length() > 1)
-      out = out.replaceFirst("^0*([1-9].*)", "$1");
-    return out;
+    final int len = key.length();
+    int p = 0;
+    while (p < len && Character.isWhitespace(key.charAt(p)))
+      p++;
+    if (p < len && key.charAt(p) == '+')
+    {
+      p++;
+      while (p < len && Character.isWhitespace(key.charAt(p)))
+        p++;
+    }
+    final int p0 = p;
+    long index = 0;
+    for (; p < len && key.charAt(p) >= '0' && key.charAt(p) <= '9'; p++)
+    {
+      index = index * 10 + (key.charAt(p) - '0');
+      if (index > Integer.MAX_VALUE)
+        return -1;
+    }
+    if (p == p0)
+      return -1;
+    if (p < len && key.charAt(p) == '.')
+    {
+      p++;
+      while (p < len && key.charAt(p) == '0')
+        p++;
+    }
+    while (p < len && Character.isWhitespace(key.charAt(p)))
+      p++;
+    return (p == len) ? (int) index : -1;
   }
 
   /**
@@ -1398,7 +1489,7 @@ public class JSON implements Cloneable, Iterable<JSON>
     final JSON arrOut = createArray();
     for (final JSON elem : arr)
       arrOut.addArrayElement(elem);
-    fields = arrOut.fields;
+    elements = arrOut.elements;
   }
 
   public static void main( final String[] args )
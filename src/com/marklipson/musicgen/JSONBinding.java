@@ -0,0 +1,341 @@
+package com.marklipson.musicgen;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The properties of a class as {@link JSON#objectToJSON(Object)} and
+ * {@link JSON#jsonToObject(JSON, Object)} see them: its public fields, then its public getters
+ * (getX() or isX()).  They are looked up once per class and then read and written through method
+ * handles, so converting an object costs about as much as reading its fields.
+ */
+class JSONBinding
+{
+  private static final ClassValue<JSONBinding> bindings = new ClassValue<JSONBinding>()
+  {
+    @Override
+    protected JSONBinding computeValue( Class<?> type )
+    {
+      return new JSONBinding( type );
+    }
+  };
+  private static final MethodType GETTER = MethodType.methodType( Object.class, Object.class );
+  private static final MethodType SETTER = MethodType.methodType( void.class, Object.class, Object.class );
+  // returned by convert() for values that do not fit a property
+  private static final Object NO_VALUE = new Object();
+
+  /**
+   * Binding for a class.
+   */
+  static JSONBinding of( Class<?> type )
+  {
+    return bindings.get( type );
+  }
+
+  /**
+   * A public field, or a property with a getter.
+   */
+  static class Property
+  {
+    final String name;
+    final Class<?> type;
+    // values of primitive or String properties never need converting
+    final boolean simple;
+    // (Object)Object
+    private final MethodHandle getter;
+    // (Object,Object)void, or null for final fields and properties without a setter
+    private final MethodHandle setter;
+
+    Property( String name, Class<?> type, MethodHandle getter, MethodHandle setter )
+    {
+      this.name = name;
+      this.type = type;
+      this.simple = type.isPrimitive()  ||  type == String.class;
+      this.getter = getter.asType( GETTER );
+      this.setter = (setter == null) ? null : setter.asType( SETTER );
+    }
+    Object get( Object in ) throws Exception
+    {
+      try
+      {
+        return (Object)getter.invokeExact( in );
+      }
+      catch( Exception x )
+      {
+        throw x;
+      }
+      catch( Error x )
+      {
+        throw x;
+      }
+      catch( Throwable x )
+      {
+        throw new RuntimeException( x );
+      }
+    }
+    boolean canSet()
+    {
+      return setter != null;
+    }
+    void set( Object target, Object value ) throws Exception
+    {
+      try
+      {
+        setter.invokeExact( target, value );
+      }
+      catch( Exception x )
+      {
+        throw x;
+      }
+      catch( Error x )
+      {
+        throw x;
+      }
+      catch( Throwable x )
+      {
+        throw new RuntimeException( x );
+      }
+    }
+  }
+
+  final Property[] properties;
+
+  private JSONBinding( Class<?> type )
+  {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    List<Property> found = new ArrayList<Property>();
+    for (Field f : type.getFields())
+    {
+      if (Modifier.isStatic( f.getModifiers() ))
+        continue;
+      try
+      {
+        open( f );
+        MethodHandle setter = Modifier.isFinal( f.getModifiers() ) ? null : lookup.unreflectSetter( f );
+        found.add( new Property( f.getName(), f.getType(), lookup.unreflectGetter( f ), setter ) );
+      }
+      catch( Exception x )
+      {
+        // not accessible: leave it out
+      }
+    }
+    for (Method m : type.getMethods())
+    {
+      if (Modifier.isStatic( m.getModifiers() ))
+        continue;
+      String mName = m.getName();
+      if (! mName.startsWith( "get" )  &&  ! mName.startsWith( "is" ))
+        continue;
+      if (m.getParameterTypes().length != 0)
+        continue;
+      if (mName.equals( "getClass" )  ||  mName.equals( "get" )  ||  mName.equals( "is" ))
+        continue;
+      int baseLen = mName.startsWith( "get" ) ? 3 : 2;
+      String name = Character.toLowerCase( mName.charAt( baseLen ) ) + mName.substring( baseLen + 1 );
+      try
+      {
+        open( m );
+        MethodHandle setter = null;
+        Method set = findSetter( type, "set" + mName.substring( baseLen ), m.getReturnType() );
+        if (set != null)
+        {
+          open( set );
+          setter = lookup.unreflect( set );
+        }
+        found.add( new Property( name, m.getReturnType(), lookup.unreflect( m ), setter ) );
+      }
+      catch( Exception x )
+      {
+        // not accessible: leave it out
+      }
+    }
+    properties = found.toArray( new Property[ found.size() ] );
+  }
+  // public members of a class that is not itself public need this; where it is not allowed, unreflecting
+  // decides whether they can be used
+  private static void open( AccessibleObject member )
+  {
+    try
+    {
+      member.setAccessible( true );
+    }
+    catch( RuntimeException x )
+    {
+    }
+  }
+  private static Method findSetter( Class<?> type, String name, Class<?> valueType )
+  {
+    try
+    {
+      Method m = type.getMethod( name, valueType );
+      return Modifier.isStatic( m.getModifiers() ) ? null : m;
+    }
+    catch( NoSuchMethodException x )
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Set properties of an object from the matching values in a JSON object.  Values that are
+   * missing or null, or that cannot be converted to the property's type, are left alone.
+   */
+  void bind( JSON in, Object target ) throws Exception
+  {
+    for (Property p : properties)
+    {
+      if (! p.canSet())
+        continue;
+      Object v = in.get( p.name, false );
+      if (v == null)
+        continue;
+      v = convert( v, p.type );
+      if (v != NO_VALUE)
+        p.set( target, v );
+    }
+  }
+
+  /**
+   * A value from JSON as an instance of the given type, or NO_VALUE.
+   */
+  static Object convert( Object v, Class<?> type ) throws Exception
+  {
+    if (v instanceof JSON)
+    {
+      JSON j = (JSON)v;
+      if (type == JSON.class  ||  type == Object.class)
+        return j;
+      if (j.isArray()  &&  type.isArray())
+      {
+        Class<?> elementType = type.getComponentType();
+        Object out = Array.newInstance( elementType, j.getArraySize() );
+        for (int n=0; n < j.getArraySize(); n++)
+        {
+          Object e = element( j, n );
+          if (e == null)
+            continue;
+          e = convert( e, elementType );
+          if (e != NO_VALUE)
+            Array.set( out, n, e );
+        }
+        return out;
+      }
+      if (j.isArray()  &&  type.isAssignableFrom( ArrayList.class ))
+      {
+        List<Object> out = new ArrayList<Object>( j.getArraySize() );
+        for (int n=0; n < j.getArraySize(); n++)
+          out.add( element( j, n ) );
+        return out;
+      }
+      if (j.isObject()  &&  ! type.isPrimitive()  &&  ! type.isInterface()  &&  ! Modifier.isAbstract( type.getModifiers() ))
+      {
+        Constructor<?> ctor;
+        try
+        {
+          ctor = type.getDeclaredConstructor();
+        }
+        catch( NoSuchMethodException x )
+        {
+          return NO_VALUE;
+        }
+        open( ctor );
+        Object out = ctor.newInstance();
+        of( type ).bind( j, out );
+        return out;
+      }
+      return NO_VALUE;
+    }
+    if (type == String.class)
+      return v.toString();
+    if (type.isPrimitive() ? wrapperOf( type ).isInstance( v ) : type.isInstance( v ))
+      return v;
+    if (type == boolean.class  ||  type == Boolean.class)
+    {
+      String s = v.toString();
+      return s.equalsIgnoreCase( "true" ) ? Boolean.TRUE : s.equalsIgnoreCase( "false" ) ? Boolean.FALSE : NO_VALUE;
+    }
+    if (type == char.class  ||  type == Character.class)
+    {
+      String s = v.toString();
+      return (s.length() == 1) ? (Object)s.charAt( 0 ) : NO_VALUE;
+    }
+    if (type.isEnum())
+    {
+      for (Object c : type.getEnumConstants())
+        if (((Enum<?>)c).name().equals( v.toString() ))
+          return c;
+      return NO_VALUE;
+    }
+    if (type == File.class)
+      return new File( v.toString() );
+    Class<?> wrapper = type.isPrimitive() ? wrapperOf( type ) : type;
+    if (Number.class.isAssignableFrom( wrapper ))
+    {
+      Number num;
+      if (v instanceof Number)
+        num = (Number)v;
+      else
+      {
+        try
+        {
+          num = Double.parseDouble( v.toString() );
+        }
+        catch( NumberFormatException x )
+        {
+          return NO_VALUE;
+        }
+      }
+      if (wrapper == Integer.class)
+        return num.intValue();
+      if (wrapper == Long.class)
+        return num.longValue();
+      if (wrapper == Double.class)
+        return num.doubleValue();
+      if (wrapper == Float.class)
+        return num.floatValue();
+      if (wrapper == Short.class)
+        return num.shortValue();
+      if (wrapper == Byte.class)
+        return num.byteValue();
+    }
+    return NO_VALUE;
+  }
+  // an array element as stored: a JSON for arrays and objects, otherwise the plain value
+  private static Object element( JSON j, int n )
+  {
+    JSON e = j.getComplex( n );
+    if (e == null)
+      return null;
+    return e.isSimple() ? e.getSimpleValue_Object() : e;
+  }
+  private static Class<?> wrapperOf( Class<?> primitive )
+  {
+    if (primitive == int.class)
+      return Integer.class;
+    if (primitive == long.class)
+      return Long.class;
+    if (primitive == double.class)
+      return Double.class;
+    if (primitive == float.class)
+      return Float.class;
+    if (primitive == boolean.class)
+      return Boolean.class;
+    if (primitive == short.class)
+      return Short.class;
+    if (primitive == byte.class)
+      return Byte.class;
+    if (primitive == char.class)
+      return Character.class;
+    return Void.class;
+  }
+}
@@ -0,0 +1,363 @@
+package com.marklipson.musicgen;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable JSON object or array.  "Changing" one with {@link #with(String, Object)} and the
+ * like returns a new snapshot that shares every value that did not change with the original, and
+ * returns the original itself if nothing changed at all.  So two snapshots taken from the same
+ * unchanged state are the same object, and comparing them costs nothing.
+ *
+ * Hash codes are computed once, from the children's, so {@link #equals(Object)} rejects most
+ * differing snapshots at once, and accepts shared children without looking inside them.
+ * {@link #diff(JSONSnapshot, JSONSnapshot)} skips shared subtrees the same way.
+ *
+ * Values are Strings, Numbers, Booleans, nulls and nested snapshots.  Updating is copy on write,
+ * so it costs the width of each node on the path to the change - fine for settings, and for
+ * arrays that are built once and then only read, like playlists.
+ */
+public final class JSONSnapshot
+{
+  public static final JSONSnapshot EMPTY_OBJECT = new JSONSnapshot( false, new String[0], new Object[0] );
+  public static final JSONSnapshot EMPTY_ARRAY = new JSONSnapshot( true, null, new Object[0] );
+  // objects wider than this get an index for looking up keys
+  private static final int INDEXED = 16;
+
+  private final boolean isArray;
+  // keys of an object, in order, and values of either
+  private final String[] keys;
+  private final Object[] values;
+  private final int hash;
+  // built on first lookup; volatile, since snapshots are read from several threads at once
+  private volatile Map<String,Integer> index;
+  private String text;
+
+  private JSONSnapshot( boolean isArray, String[] keys, Object[] values )
+  {
+    this.isArray = isArray;
+    this.keys = keys;
+    this.values = values;
+    int h = isArray ? 1 : 0;
+    for (int n=0; n < values.length; n++)
+    {
+      if (isArray)
+        h = 31 * h + hashOf( values[n] );
+      else
+        // like a Map, independent of order
+        h += keys[n].hashCode() ^ hashOf( values[n] );
+    }
+    hash = h;
+  }
+  private static int hashOf( Object v )
+  {
+    return (v == null) ? 0 : v.hashCode();
+  }
+
+  /**
+   * Snapshot of a JSON object or array (or null for anything else).
+   */
+  public static JSONSnapshot of( JSON json )
+  {
+    if (json == null)
+      return null;
+    if (json.isArray())
+    {
+      Object[] values = new Object[ json.getArraySize() ];
+      for (int n=0; n < values.length; n++)
+        values[n] = value( json.getComplex( n ) );
+      return new JSONSnapshot( true, null, values );
+    }
+    if (! json.isObject())
+      return null;
+    String[] keys = json.getFields();
+    Object[] values = new Object[ keys.length ];
+    for (int n=0; n < keys.length; n++)
+      values[n] = value( json.getComplex( keys[n], false ) );
+    return new JSONSnapshot( false, keys, values );
+  }
+  private static Object value( JSON v )
+  {
+    if (v == null)
+      return null;
+    if (v.isSimple())
+      return v.getSimpleValue_Object();
+    return of( v );
+  }
+  /**
+   * A value as it is kept here: JSON objects and arrays become snapshots, simple JSON values are
+   * unwrapped, and non-numbers become null, as they would in JSON.
+   */
+  private static Object storable( Object v )
+  {
+    if (v instanceof JSON)
+      return value( (JSON)v );
+    if (v instanceof Double  &&  (((Double)v).isNaN()  ||  ((Double)v).isInfinite()))
+      return null;
+    if (v instanceof Float  &&  (((Float)v).isNaN()  ||  ((Float)v).isInfinite()))
+      return null;
+    return v;
+  }
+
+  /**
+   * A mutable copy.
+   */
+  public JSON toJSON()
+  {
+    JSON out = isArray ? JSON.createArray() : JSON.createObject();
+    for (int n=0; n < values.length; n++)
+    {
+      Object v = values[n];
+      if (v instanceof JSONSnapshot)
+        v = ((JSONSnapshot)v).toJSON();
+      if (isArray)
+        out.addArrayElement( v );
+      else
+        out.set( keys[n], v, false );
+    }
+    return out;
+  }
+
+  public boolean isArray()
+  {
+    return isArray;
+  }
+  public boolean isObject()
+  {
+    return ! isArray;
+  }
+  /**
+   * Number of fields or elements.
+   */
+  public int size()
+  {
+    return values.length;
+  }
+  public String[] getFields()
+  {
+    return isArray ? new String[0] : keys.clone();
+  }
+  /**
+   * Value of a field: a String, Number, Boolean, snapshot, or null.
+   */
+  public Object get( String key )
+  {
+    int at = find( key );
+    return (at < 0) ? null : values[at];
+  }
+  /**
+   * Element of an array.
+   */
+  public Object get( int index )
+  {
+    return (index >= 0  &&  index < values.length) ? values[index] : null;
+  }
+  public JSONSnapshot getComplex( String key )
+  {
+    Object v = get( key );
+    return (v instanceof JSONSnapshot) ? (JSONSnapshot)v : null;
+  }
+  public JSONSnapshot getComplex( int index )
+  {
+    Object v = get( index );
+    return (v instanceof JSONSnapshot) ? (JSONSnapshot)v : null;
+  }
+  public String getString( String key, String defaultValue )
+  {
+    Object v = get( key );
+    return (v == null) ? defaultValue : v.toString();
+  }
+  public double getDouble( String key, double defaultValue )
+  {
+    Object v = get( key );
+    if (v instanceof Number)
+      return ((Number)v).doubleValue();
+    // numbers given as text, as JSON.getDouble() accepts them
+    if (v instanceof String  &&  ((String)v).matches( "-?\\d+(\\.\\d*)?" ))
+      return Double.parseDouble( (String)v );
+    return defaultValue;
+  }
+  private int find( String key )
+  {
+    if (isArray)
+      return -1;
+    if (keys.length > INDEXED)
+    {
+      Map<String,Integer> map = index;
+      if (map == null)
+      {
+        map = new HashMap<String,Integer>();
+        for (int n=0; n < keys.length; n++)
+          map.put( keys[n], n );
+        index = map;
+      }
+      Integer at = map.get( key );
+      return (at == null) ? -1 : at;
+    }
+    for (int n=0; n < keys.length; n++)
+      if (keys[n].equals( key ))
+        return n;
+    return -1;
+  }
+
+  /**
+   * This object with a field set to a value, or this object itself if it already had that value.
+   */
+  public JSONSnapshot with( String key, Object value )
+  {
+    if (isArray)
+      throw new IllegalStateException( "not an object" );
+    value = storable( value );
+    int at = find( key );
+    if (at >= 0)
+    {
+      if (same( values[at], value ))
+        return this;
+      Object[] v = values.clone();
+      v[at] = value;
+      return new JSONSnapshot( false, keys, v );
+    }
+    String[] k = Arrays.copyOf( keys, keys.length + 1 );
+    Object[] v = Arrays.copyOf( values, values.length + 1 );
+    k[keys.length] = key;
+    v[values.length] = value;
+    return new JSONSnapshot( false, k, v );
+  }
+  /**
+   * This object without a field, or this object itself if it did not have it.
+   */
+  public JSONSnapshot without( String key )
+  {
+    int at = find( key );
+    if (at < 0)
+      return this;
+    String[] k = new String[ keys.length - 1 ];
+    Object[] v = new Object[ values.length - 1 ];
+    System.arraycopy( keys, 0, k, 0, at );
+    System.arraycopy( keys, at + 1, k, at, k.length - at );
+    System.arraycopy( values, 0, v, 0, at );
+    System.arraycopy( values, at + 1, v, at, v.length - at );
+    return new JSONSnapshot( false, k, v );
+  }
+  /**
+   * This array with an element replaced, or added if index is the current size.
+   */
+  public JSONSnapshot with( int index, Object value )
+  {
+    if (! isArray)
+      throw new IllegalStateException( "not an array" );
+    if (index < 0  ||  index > values.length)
+      throw new IndexOutOfBoundsException( String.valueOf( index ) );
+    value = storable( value );
+    if (index < values.length  &&  same( values[index], value ))
+      return this;
+    Object[] v = Arrays.copyOf( values, Math.max( values.length, index + 1 ) );
+    v[index] = value;
+    return new JSONSnapshot( true, null, v );
+  }
+  private static boolean same( Object a, Object b )
+  {
+    if (a == b)
+      return true;
+    if (a == null  ||  b == null)
+      return false;
+    return a.equals( b );
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return hash;
+  }
+  @Override
+  public boolean equals( Object obj )
+  {
+    if (obj == this)
+      return true;
+    if (! (obj instanceof JSONSnapshot))
+      return false;
+    JSONSnapshot other = (JSONSnapshot)obj;
+    if (other.hash != hash  ||  other.isArray != isArray  ||  other.values.length != values.length)
+      return false;
+    for (int n=0; n < values.length; n++)
+    {
+      if (isArray)
+      {
+        if (! same( values[n], other.values[n] ))
+          return false;
+      }
+      else
+      {
+        // usually the fields are in the same order
+        int at = keys[n].equals( other.keys[n] ) ? n : other.find( keys[n] );
+        if (at < 0  ||  ! same( values[n], other.values[at] ))
+          return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Changes from one snapshot to another, in the form that {@link JSON#diff(JSON, JSON)} produces
+   * and {@link JSON#merge(JSON)} applies.  Subtrees the two share are skipped without being looked
+   * at, so this costs in proportion to what changed.
+   *
+   * @return the changes, or null if there are none
+   */
+  public static JSON diff( JSONSnapshot a, JSONSnapshot b )
+  {
+    Object d = diff( a, b, false );
+    return (d == null) ? null : (JSON)d;
+  }
+  private static Object diff( Object a, Object b, boolean inArray )
+  {
+    if (same( a, b ))
+      return inArray ? JSON._same : null;
+    if (b == null)
+      return JSON._remove;
+    if (! (a instanceof JSONSnapshot)  ||  ! (b instanceof JSONSnapshot)  ||  ((JSONSnapshot)a).isArray != ((JSONSnapshot)b).isArray)
+      return (b instanceof JSONSnapshot) ? ((JSONSnapshot)b).toJSON() : JSON.createSimple( b );
+    JSONSnapshot sa = (JSONSnapshot)a, sb = (JSONSnapshot)b;
+    if (sb.isArray)
+    {
+      JSON out = JSON.createArray();
+      int n = 0;
+      for (; n < sa.values.length  &&  n < sb.values.length; n++)
+        out.set( n, diff( sa.values[n], sb.values[n], true ) );
+      for (; n < sb.values.length; n++)
+        out.set( n, toJSONValue( sb.values[n] ) );
+      for (; n < sa.values.length; n++)
+        out.set( n, JSON._remove );
+      return out;
+    }
+    JSON out = JSON.createObject();
+    for (int n=0; n < sb.keys.length; n++)
+    {
+      int at = sa.find( sb.keys[n] );
+      Object sub = (at < 0) ? toJSONValue( sb.values[n] ) : diff( sa.values[at], sb.values[n], false );
+      if (sub != null)
+        out.set( sb.keys[n], sub, false );
+    }
+    for (int n=0; n < sa.keys.length; n++)
+      if (sb.find( sa.keys[n] ) < 0)
+        out.set( sa.keys[n], JSON._remove, false );
+    return out;
+  }
+  private static Object toJSONValue( Object v )
+  {
+    return (v instanceof JSONSnapshot) ? ((JSONSnapshot)v).toJSON() : v;
+  }
+
+  /**
+   * Same text as the equivalent {@link JSON} would produce; worked out once.
+   */
+  @Override
+  public String toString()
+  {
+    String t = text;
+    if (t == null)
+      text = t = toJSON().toString();
+    return t;
+  }
+}
@@ -0,0 +1,233 @@
+package com.marklipson.musicgen;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Reads and writes JSON arrays one element at a time, so that long recordings never
+ * have to be held in memory as a whole.
+ *
+ * To read: ArrayReader r = new ArrayReader( file ); for (JSON step; (step = r.next()) != null;) ...
+ *
+ * To write: ArrayWriter w = new ArrayWriter( file ); w.append( step ); ... w.close();
+ */
+public class JSONStream
+{
+  static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  /**
+   * Pulls the elements of a JSON array from a stream.  Each element is scanned up to its
+   * closing bracket and then handed to {@link JSON#parse(String)}, so only one element is
+   * held in memory at a time.
+   */
+  public static class ArrayReader implements Closeable
+  {
+    private Reader in;
+    private char[] buf = new char[ 8192 ];
+    private int pos, len;
+    private boolean ended;
+    private StringBuilder element = new StringBuilder( 512 );
+
+    public ArrayReader( File f ) throws IOException
+    {
+      this( new InputStreamReader( new FileInputStream( f ), UTF8 ) );
+    }
+    public ArrayReader( Reader in ) throws IOException
+    {
+      this.in = in;
+      ws();
+      if (cur() != '[')
+        throw new IOException( "expected a JSON array" );
+      pos ++;
+    }
+    private int cur() throws IOException
+    {
+      if (pos >= len)
+      {
+        len = in.read( buf, 0, buf.length );
+        pos = 0;
+        if (len <= 0)
+        {
+          len = 0;
+          return -1;
+        }
+      }
+      return buf[pos];
+    }
+    private int look() throws IOException
+    {
+      // make sure at least two characters are available
+      if (pos + 1 >= len  &&  cur() != -1)
+      {
+        System.arraycopy( buf, pos, buf, 0, len - pos );
+        len -= pos;
+        pos = 0;
+        int got = in.read( buf, len, buf.length - len );
+        if (got > 0)
+          len += got;
+      }
+      if (pos + 1 < len)
+        return buf[pos+1];
+      return -1;
+    }
+    private void take( boolean keep ) throws IOException
+    {
+      if (keep)
+        element.append( buf[pos] );
+      pos ++;
+    }
+    /**
+     * Skips white space and comments, optionally copying them into the current element.
+     */
+    private void ws() throws IOException
+    {
+      for (;;)
+      {
+        int ch = cur();
+        if (ch == -1)
+          return;
+        if (Character.isWhitespace( ch ))
+          pos ++;
+        else if (ch == '/'  &&  look() == '/')
+        {
+          while (cur() != -1  &&  cur() != '\n')
+            pos ++;
+        }
+        else if (ch == '/'  &&  look() == '*')
+        {
+          pos += 2;
+          while (cur() != -1  &&  ! (cur() == '*'  &&  look() == '/'))
+            pos ++;
+          if (cur() != -1)
+            pos += 2;
+        }
+        else
+          return;
+      }
+    }
+    /**
+     * The next element of the array, or null at the end.
+     */
+    public JSON next() throws IOException
+    {
+      if (ended)
+        return null;
+      ws();
+      while (cur() == ',')
+      {
+        pos ++;
+        ws();
+      }
+      if (cur() == ']'  ||  cur() == -1)
+      {
+        ended = true;
+        return null;
+      }
+      element.setLength( 0 );
+      int depth = 0;
+      for (;;)
+      {
+        int ch = cur();
+        if (ch == -1)
+          break;
+        if (ch == '"'  ||  ch == '\'')
+        {
+          // copy a quoted string, so brackets and commas in it are not counted
+          take( true );
+          for (;;)
+          {
+            int ch2 = cur();
+            if (ch2 == -1)
+              break;
+            take( true );
+            if (ch2 == '\\'  &&  cur() != -1)
+              take( true );
+            else if (ch2 == ch)
+              break;
+          }
+          continue;
+        }
+        if (ch == '/'  &&  (look() == '/'  ||  look() == '*'))
+        {
+          ws();
+          element.append( ' ' );
+          continue;
+        }
+        if (depth == 0  &&  (ch == ','  ||  ch == ']'))
+          break;
+        if (ch == '{'  ||  ch == '[')
+          depth ++;
+        else if (ch == '}'  ||  ch == ']')
+          depth --;
+        take( true );
+        if (depth == 0  &&  (ch == '}'  ||  ch == ']'))
+          break;
+      }
+      return JSON.parse( element.toString() );
+    }
+    @Override
+    public void close() throws IOException
+    {
+      in.close();
+    }
+  }
+
+  /**
+   * Appends elements to a JSON array as they arrive.  The array is left unterminated
+   * until {@link #close()}, and each element is flushed as it is written.
+   */
+  public static class ArrayWriter implements Closeable
+  {
+    private Writer out;
+    private int count;
+
+    public ArrayWriter( File f ) throws IOException
+    {
+      this( new BufferedWriter( new OutputStreamWriter( new FileOutputStream( f ), UTF8 ) ) );
+    }
+    public ArrayWriter( Writer out ) throws IOException
+    {
+      this.out = out;
+      out.write( '[' );
+    }
+    public void append( JSON element ) throws IOException
+    {
+      append( element.toString() );
+    }
+    public void append( JSONSnapshot element ) throws IOException
+    {
+      append( element.toString() );
+    }
+    private synchronized void append( String element ) throws IOException
+    {
+      if (count > 0)
+        out.write( ',' );
+      out.write( '\n' );
+      out.write( element );
+      out.flush();
+      count ++;
+    }
+    /**
+     * Number of elements written so far.
+     */
+    public synchronized int getCount()
+    {
+      return count;
+    }
+    @Override
+    public synchronized void close() throws IOException
+    {
+      out.write( "\n]\n" );
+      out.close();
+    }
+  }
+}
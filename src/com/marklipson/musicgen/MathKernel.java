@@ -0,0 +1,285 @@
+package com.marklipson.musicgen;
+
+import java.util.Random;
+
+/**
+ * The transcendental functions the synthesizer uses, at a choice of precision.
+ *
+ * Oscillator phases grow for as long as a session runs, and Math.sin gets slower once its
+ * argument is large.  The approximations here wrap the phase into a single cycle first, so they
+ * cost the same after hours as after seconds.
+ *
+ * Errors are absolute for sin, cos and log, and relative for exp.
+ * <ul>
+ * <li>EXACT is java.lang.Math.</li>
+ * <li>FAST is within 1e-6, using polynomials.</li>
+ * <li>ULTRA_FAST is within 1e-4, using a table for sin and cos and shorter polynomials for the
+ * rest.</li>
+ * </ul>
+ * Arguments an approximation does not cover, i.e. log(0), or phases past about 4e8, are passed
+ * on to java.lang.Math.
+ */
+public abstract class MathKernel
+{
+  public static final MathKernel EXACT = new MathKernel( "exact" )
+  {
+    @Override
+    public double sin( double x )
+    {
+      return Math.sin( x );
+    }
+    @Override
+    public double cos( double x )
+    {
+      return Math.cos( x );
+    }
+    @Override
+    public double exp( double x )
+    {
+      return Math.exp( x );
+    }
+    @Override
+    public double log( double x )
+    {
+      return Math.log( x );
+    }
+  };
+  public static final MathKernel FAST = new MathKernel( "fast" )
+  {
+    @Override
+    public double sin( double x )
+    {
+      if (! (Math.abs( x ) < MAX_PHASE))
+        return Math.sin( x );
+      return sinNear( wrap( x ) );
+    }
+    @Override
+    public double cos( double x )
+    {
+      if (! (Math.abs( x ) < MAX_PHASE))
+        return Math.cos( x );
+      // cos(r) = sin(pi/2 - |r|), which is already within -pi/2 to pi/2
+      return sinPoly( HALF_PI - Math.abs( wrap( x ) ) );
+    }
+    @Override
+    public double exp( double x )
+    {
+      if (! (Math.abs( x ) < MAX_EXP))
+        return Math.exp( x );
+      double k = Math.rint( x * LOG2_E );
+      double r = (x - k * LN2_HI) - k * LN2_LO;
+      double p = 1 + r*(1 + r*(1/2.0 + r*(1/6.0 + r*(1/24.0 + r*(1/120.0 + r*(1/720.0))))));
+      return p * powerOfTwo( k );
+    }
+    @Override
+    public double log( double x )
+    {
+      if (! (x >= Double.MIN_NORMAL  &&  x <= Double.MAX_VALUE))
+        return Math.log( x );
+      long bits = Double.doubleToRawLongBits( x );
+      int e = (int)(bits >>> 52) - 1023;
+      double m = mantissa( bits );
+      if (m > SQRT2)
+      {
+        m *= 0.5;
+        e ++;
+      }
+      // log(m) = 2 atanh(s)
+      double s = (m - 1) / (m + 1);
+      double s2 = s*s;
+      return e * LN2 + 2*s*(1 + s2*(1/3.0 + s2*(1/5.0 + s2*(1/7.0))));
+    }
+  };
+  public static final MathKernel ULTRA_FAST = new MathKernel( "ultra-fast" )
+  {
+    @Override
+    public double sin( double x )
+    {
+      if (! (Math.abs( x ) < MAX_PHASE))
+        return Math.sin( x );
+      return lookup( x * PER_RADIAN );
+    }
+    @Override
+    public double cos( double x )
+    {
+      if (! (Math.abs( x ) < MAX_PHASE))
+        return Math.cos( x );
+      return lookup( x * PER_RADIAN + TABLE_SIZE/4 );
+    }
+    @Override
+    public double exp( double x )
+    {
+      if (! (Math.abs( x ) < MAX_EXP))
+        return Math.exp( x );
+      double k = Math.rint( x * LOG2_E );
+      double r = (x - k * LN2_HI) - k * LN2_LO;
+      double p = 1 + r*(1 + r*(1/2.0 + r*(1/6.0 + r*(1/24.0))));
+      return p * powerOfTwo( k );
+    }
+    @Override
+    public double log( double x )
+    {
+      if (! (x >= Double.MIN_NORMAL  &&  x <= Double.MAX_VALUE))
+        return Math.log( x );
+      long bits = Double.doubleToRawLongBits( x );
+      int e = (int)(bits >>> 52) - 1023;
+      double m = mantissa( bits );
+      if (m > SQRT2)
+      {
+        m *= 0.5;
+        e ++;
+      }
+      double s = (m - 1) / (m + 1);
+      return e * LN2 + 2*s*(1 + s*s*(1/3.0));
+    }
+  };
+
+  // 2pi in three parts; k * TWO_PI_HI is exact for k below 2^26, so wrapping loses nothing
+  // until phases reach MAX_PHASE
+  private static final double TWO_PI_HI = Double.longBitsToDouble( Double.doubleToRawLongBits( 2*Math.PI ) & 0xFFFFFFFFF8000000L );
+  private static final double TWO_PI_MID = 2*Math.PI - TWO_PI_HI;
+  private static final double TWO_PI_LO = 2.4492935982947064e-16;
+  private static final double INV_TWO_PI = 1 / (2*Math.PI);
+  private static final double HALF_PI = Math.PI / 2;
+  static final double MAX_PHASE = (1 << 26) * 2*Math.PI;
+  // beyond this exp overflows, or its result is no longer a normal number
+  private static final double MAX_EXP = 708;
+  private static final double LOG2_E = 1 / Math.log( 2 );
+  private static final double LN2 = Math.log( 2 );
+  private static final double LN2_HI = 6.93147180369123816490e-01;
+  private static final double LN2_LO = 1.90821492927058770002e-10;
+  private static final double SQRT2 = Math.sqrt( 2 );
+  // one cycle of sin, plus the start of the next so interpolating never wraps
+  private static final int TABLE_SIZE = 512;
+  private static final double PER_RADIAN = TABLE_SIZE / (2*Math.PI);
+  private static final double[] TABLE = new double[ TABLE_SIZE + 1 ];
+  static
+  {
+    for (int n=0; n <= TABLE_SIZE; n++)
+      TABLE[n] = Math.sin( n / PER_RADIAN );
+  }
+
+  private final String name;
+
+  private MathKernel( String name )
+  {
+    this.name = name;
+  }
+  public abstract double sin( double x );
+  public abstract double cos( double x );
+  public abstract double exp( double x );
+  public abstract double log( double x );
+
+  /**
+   * Kernel by name: "exact", "fast" or "ultra-fast".
+   */
+  public static MathKernel forName( String name )
+  {
+    for (MathKernel k : new MathKernel[] { EXACT, FAST, ULTRA_FAST })
+      if (k.name.equalsIgnoreCase( name ))
+        return k;
+    throw new IllegalArgumentException( "unknown math kernel: " + name );
+  }
+  @Override
+  public String toString()
+  {
+    return name;
+  }
+
+  /**
+   * Same angle, within -pi to pi.
+   */
+  private static double wrap( double x )
+  {
+    double k = Math.rint( x * INV_TWO_PI );
+    return ((x - k * TWO_PI_HI) - k * TWO_PI_MID) - k * TWO_PI_LO;
+  }
+  /**
+   * sin(r) for r within -pi to pi.
+   */
+  private static double sinNear( double r )
+  {
+    // sin(pi - r) = sin(r)
+    if (r > HALF_PI)
+      r = Math.PI - r;
+    else if (r < -HALF_PI)
+      r = -Math.PI - r;
+    return sinPoly( r );
+  }
+  /**
+   * sin(r) for r within -pi/2 to pi/2; the first term left out is below 6e-8.
+   */
+  private static double sinPoly( double r )
+  {
+    double r2 = r*r;
+    return r * (1 + r2*(-1/6.0 + r2*(1/120.0 + r2*(-1/5040.0 + r2*(1/362880.0 + r2*(-1/39916800.0))))));
+  }
+  /**
+   * Interpolated sin at a position in the table, counting whole cycles as TABLE_SIZE.
+   */
+  private static double lookup( double p )
+  {
+    double whole = Math.floor( p );
+    double f = p - whole;
+    int i = (int)((long)whole & (TABLE_SIZE - 1));
+    double a = TABLE[i];
+    return a + f * (TABLE[i+1] - a);
+  }
+  /**
+   * 2^k, for whole k within the range of normal numbers.
+   */
+  private static double powerOfTwo( double k )
+  {
+    return Double.longBitsToDouble( ((long)k + 1023) << 52 );
+  }
+  /**
+   * The mantissa of a normal number, from 1 up to 2.
+   */
+  private static double mantissa( long bits )
+  {
+    return Double.longBitsToDouble( (bits & 0x000FFFFFFFFFFFFFL) | 0x3FF0000000000000L );
+  }
+
+  /**
+   * Time each kernel, in nanoseconds per call, for small and large arguments.
+   */
+  public static void main( String[] args )
+  {
+    int count = 5000000;
+    double[] small = new double[ 4096 ], large = new double[ 4096 ], positive = new double[ 4096 ];
+    Random rnd = new Random( 1 );
+    for (int n=0; n < small.length; n++)
+    {
+      small[n] = (rnd.nextDouble() - 0.5) * 20;
+      large[n] = 1e8 + rnd.nextDouble() * 1e8;
+      positive[n] = Math.exp( (rnd.nextDouble() - 0.5) * 100 );
+    }
+    double sum = 0;
+    for (int pass=0; pass < 2; pass++)
+    {
+      for (MathKernel k : new MathKernel[] { EXACT, FAST, ULTRA_FAST })
+      {
+        long t0 = System.nanoTime();
+        for (int n=0; n < count; n++)
+          sum += k.sin( small[n & 4095] );
+        long t1 = System.nanoTime();
+        for (int n=0; n < count; n++)
+          sum += k.sin( large[n & 4095] );
+        long t2 = System.nanoTime();
+        for (int n=0; n < count; n++)
+          sum += k.exp( small[n & 4095] );
+        long t3 = System.nanoTime();
+        for (int n=0; n < count; n++)
+          sum += k.log( positive[n & 4095] );
+        long t4 = System.nanoTime();
+        // the first pass is only to warm up
+        if (pass == 1)
+          System.out.printf( "%-10s  sin %5.1f  sin(large) %5.1f  exp %5.1f  log %5.1f ns%n", k,
+            (t1 - t0) / (double)count, (t2 - t1) / (double)count, (t3 - t2) / (double)count, (t4 - t3) / (double)count );
+      }
+    }
+    // so none of it can be optimized away
+    if (sum == 42)
+      System.out.println();
+  }
+}
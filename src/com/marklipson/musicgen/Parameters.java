@@ -0,0 +1,264 @@
+package com.marklipson.musicgen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.marklipson.musicgen.WaveSource.SmoothValue;
+
+/**
+ * The synthesizer's adjustable parameters.  Each has a stable id (the order it was added in), the
+ * key its value is saved under, a unit, a range, and a scale that maps control positions to
+ * values.
+ *
+ * A set of values for all parameters is a plain double[] indexed by id, holding real values (hz,
+ * seconds, levels), with NaN for a value that is not given.  Files keep control positions, as
+ * they always have, so settings, playlists and recordings from before still load.
+ *
+ * The current values are those the controls last reported through
+ * {@link #set(int, double, boolean)}; they are only changed on the event thread, but can be read
+ * from any thread.
+ */
+public class Parameters
+{
+  public enum Scale
+  {
+    /** value = position * step */
+    LINEAR,
+    /** value = e ^ (position * step) */
+    LOG
+  }
+
+  /**
+   * Told when a control changes a value.
+   */
+  public interface Listener
+  {
+    void changed( Parameter p, double value );
+  }
+
+  public static class Parameter
+  {
+    public final int id;
+    public final String key;
+    public final String label;
+    public final String unit;
+    public final Scale scale;
+    public final double step;
+    // range and default, as control positions
+    public final int minPosition, maxPosition, defaultPosition;
+    // where the value goes
+    final SmoothValue target;
+
+    Parameter( int id, String key, String label, String unit, Scale scale, double step, int min, int max, int dflt, SmoothValue target )
+    {
+      this.id = id;
+      this.key = key;
+      this.label = label;
+      this.unit = unit;
+      this.scale = scale;
+      this.step = step;
+      this.minPosition = min;
+      this.maxPosition = max;
+      this.defaultPosition = dflt;
+      this.target = target;
+    }
+    /**
+     * Value at a control position.
+     */
+    public double valueAt( int position )
+    {
+      double value = position * step;
+      return (scale == Scale.LOG) ? Math.exp( value ) : value;
+    }
+    /**
+     * Nearest control position to a value, within range.
+     */
+    public int positionOf( double value )
+    {
+      double position = ((scale == Scale.LOG) ? Math.log( value ) : value) / step;
+      if (! (position > minPosition))
+        return minPosition;
+      return (int)Math.min( maxPosition, Math.round( position ) );
+    }
+    public double getMin()
+    {
+      return valueAt( minPosition );
+    }
+    public double getMax()
+    {
+      return valueAt( maxPosition );
+    }
+    public double getDefault()
+    {
+      return valueAt( defaultPosition );
+    }
+    @Override
+    public String toString()
+    {
+      return key;
+    }
+  }
+
+  private final List<Parameter> params = new ArrayList<Parameter>();
+  private final Map<String,Parameter> byKey = new HashMap<String,Parameter>();
+  private volatile double[] current = new double[0];
+  private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+  /**
+   * Add a parameter; it starts out at its default.
+   *
+   * @param label  shown next to the control, i.e. "h(2):"; the key is made from it
+   */
+  public synchronized Parameter add( String label, String unit, Scale scale, double step, int min, int max, int dflt, SmoothValue target )
+  {
+    Parameter p = new Parameter( params.size(), keyFor( label ), label, unit, scale, step, min, max, dflt, target );
+    if (byKey.containsKey( p.key ))
+      throw new IllegalArgumentException( "duplicate parameter: " + p.key );
+    params.add( p );
+    byKey.put( p.key, p );
+    double[] values = Arrays.copyOf( current, params.size() );
+    values[p.id] = p.getDefault();
+    current = values;
+    return p;
+  }
+  /**
+   * Key under which a control's value is saved, i.e. "h(2):" becomes "h_2".
+   */
+  static String keyFor( String label )
+  {
+    String key = label;
+    key = key.replaceFirst( "([^:]*).*", "$1" );
+    key = key.replaceFirst( "(.*)\\((.*)\\)", "$1_$2" );
+    return key;
+  }
+  public int size()
+  {
+    return current.length;
+  }
+  public Parameter get( int id )
+  {
+    return params.get( id );
+  }
+  /**
+   * Parameter saved under a key, or null.
+   */
+  public Parameter get( String key )
+  {
+    return byKey.get( key );
+  }
+
+  /**
+   * Current values, as a new array.
+   */
+  public double[] snapshot()
+  {
+    return current.clone();
+  }
+  public double getValue( int id )
+  {
+    return current[id];
+  }
+  public void addListener( Listener listener )
+  {
+    listeners.add( listener );
+  }
+  /**
+   * A control has changed: remember the value and send it to the synthesizer.
+   *
+   * @param immediately  jump to the value instead of gliding to it
+   */
+  public void set( int id, double value, boolean immediately )
+  {
+    boolean changed = (current[id] != value);
+    current[id] = value;
+    Parameter p = params.get( id );
+    if (p.target != null)
+      p.target.setValue( value, immediately );
+    if (changed)
+      for (Listener listener : listeners)
+        listener.changed( p, value );
+  }
+  /**
+   * Send values straight to the synthesizer, skipping any that are NaN.  The current values are
+   * left alone, since the controls are expected to catch up and report them.  This is safe to
+   * call from the audio thread, and does not allocate.
+   */
+  public void apply( double[] values )
+  {
+    for (int n=0; n < values.length; n++)
+    {
+      Parameter p = params.get( n );
+      if (! Double.isNaN( values[n] )  &&  p.target != null)
+        p.target.setValue( values[n] );
+    }
+  }
+
+  /**
+   * Values saved in a JSON object, NaN for those that are missing.
+   */
+  public double[] read( JSON in )
+  {
+    double[] values = empty();
+    for (Parameter p : params)
+      values[p.id] = valueOf( p, in.get( p.key ) );
+    return values;
+  }
+  public double[] read( JSONSnapshot in )
+  {
+    double[] values = empty();
+    for (Parameter p : params)
+      values[p.id] = valueOf( p, in.get( p.key ) );
+    return values;
+  }
+  /**
+   * Values from an old-style properties file.
+   */
+  public double[] read( Properties in )
+  {
+    double[] values = empty();
+    for (Parameter p : params)
+      values[p.id] = valueOf( p, in.getProperty( p.key ) );
+    return values;
+  }
+  private double[] empty()
+  {
+    double[] values = new double[ params.size() ];
+    Arrays.fill( values, Double.NaN );
+    return values;
+  }
+  private static double valueOf( Parameter p, Object saved )
+  {
+    int position;
+    if (saved instanceof Number)
+      position = ((Number)saved).intValue();
+    else if (saved instanceof String  &&  ((String)saved).matches( "\\-?\\d{1,9}" ))
+      position = Integer.parseInt( (String)saved );
+    else
+      return Double.NaN;
+    return p.valueAt( Math.max( p.minPosition, Math.min( p.maxPosition, position ) ) );
+  }
+  /**
+   * Save values, as control positions.  NaNs are left out.
+   */
+  public void write( double[] values, JSON out )
+  {
+    for (Parameter p : params)
+      if (! Double.isNaN( values[p.id] ))
+        out.set( p.key, p.positionOf( values[p.id] ) );
+  }
+  /**
+   * Save values as changes to a snapshot; if none of them changed, the same snapshot comes back.
+   */
+  public JSONSnapshot write( double[] values, JSONSnapshot out )
+  {
+    for (Parameter p : params)
+      if (! Double.isNaN( values[p.id] ))
+        out = out.with( p.key, p.positionOf( values[p.id] ) );
+    return out;
+  }
+}
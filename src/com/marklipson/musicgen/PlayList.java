@@ -2,67 +2,200 @@ package com.marklipson.musicgen;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.JButton;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
-public class PlayList extends JButton implements Runnable
+/**
+ * Plays a list of settings, each for its "duration".  Section changes are made by the render loop
+ * (see {@link WaveSource.Scheduler}), so they land on an exact sample; this thread only keeps the
+ * button text up to date.
+ */
+public class PlayList extends JButton implements Runnable, WaveSource.Scheduler
 {
   HypnoTuner target;
   Thread thread;
-  String name;
-  boolean playing;
-  JSON playlist;
-  double pos;
-  int index;
-  boolean ended;
-  
+  // replaced as a whole, so the render loop never has to lock anything
+  private final AtomicReference<Schedule> schedule = new AtomicReference<Schedule>( new Schedule( null, null, null, null ) );
+
+  /**
+   * The loaded playlist and how far along it is.  Never changed once published.
+   */
+  static final class Schedule
+  {
+    final String name;
+    final JSONSnapshot playlist;
+    // parameter values for each section, looked up once when loading
+    final double sections[][];
+    // start time of each section, with the total length at the end
+    final double starts[];
+    final boolean playing;
+    final boolean ended;
+    // position in the playlist, as of the last pause
+    final double pos;
+    // signal time corresponding to the start of the playlist, NaN until the render loop picks it up
+    final double tOrigin;
+    // section being played, -1 before the first
+    final int index;
+
+    Schedule( String name, JSONSnapshot playlist, double[][] sections, double[] starts )
+    {
+      this( name, playlist, sections, starts, false, false, 0, Double.NaN, -1 );
+    }
+    private Schedule( String name, JSONSnapshot playlist, double[][] sections, double[] starts,
+        boolean playing, boolean ended, double pos, double tOrigin, int index )
+    {
+      this.name = name;
+      this.playlist = playlist;
+      this.sections = sections;
+      this.starts = starts;
+      this.playing = playing;
+      this.ended = ended;
+      this.pos = pos;
+      this.tOrigin = tOrigin;
+      this.index = index;
+    }
+    Schedule reset()
+    {
+      return new Schedule( name, playlist, sections, starts, playing, false, 0, Double.NaN, -1 );
+    }
+    /**
+     * Playing, or paused at the given position.  The signal time is picked up again on resuming.
+     */
+    Schedule play( boolean s, double pos )
+    {
+      return new Schedule( name, playlist, sections, starts, s, ended, pos, Double.NaN, index );
+    }
+    Schedule at( double tOrigin, int index )
+    {
+      return new Schedule( name, playlist, sections, starts, playing, false, pos, tOrigin, index );
+    }
+    Schedule end()
+    {
+      return new Schedule( name, playlist, sections, starts, false, true, 0, Double.NaN, index );
+    }
+    /**
+     * Which section is playing at a given position.
+     */
+    int sectionAt( double t )
+    {
+      int at = Arrays.binarySearch( starts, t );
+      if (at < 0)
+        at = -at - 2;
+      else
+      {
+        // skip empty sections
+        while (at + 1 < starts.length  &&  starts[at + 1] == t)
+          at ++;
+      }
+      return Math.max( 0, at );
+    }
+  }
+
   PlayList( final HypnoTuner target )
   {
     super( "(playlist)" );
     this.target = target;
     thread = new Thread( this );
     thread.start();
+    target.wave.setScheduler( this );
     addActionListener( new ActionListener()
     {
       @Override
       public void actionPerformed(ActionEvent e)
       {
-        if (playlist == null)
+        Schedule s = schedule.get();
+        if (s.playlist == null)
         {
           JOptionPane.showMessageDialog( target.frame, "click 'load' to load a playlist" );
           return;
         }
-        if (ended)
-          reset();
-        play( ! playing );
+        play( ! s.playing );
       }
     });
   }
   public void loadPlaylist( String name, JSON data )
   {
-    this.name = name;
-    playlist = data.clone();
-    playing = false;
-    reset();
+    JSONSnapshot playlist = JSONSnapshot.of( data );
+    double starts[] = new double[ playlist.size() + 1 ];
+    double sections[][] = new double[ playlist.size() ][];
+    for (int n=0; n < playlist.size(); n++)
+    {
+      starts[n+1] = starts[n] + playlist.getComplex( n ).getDouble( "duration", 10 );
+      sections[n] = target.params.read( playlist.getComplex( n ) );
+    }
+    schedule.set( new Schedule( name, playlist, sections, starts ) );
   }
   public void reset()
   {
-    ended = false;
-    index = -1;
-    pos = 0;
+    for (;;)
+    {
+      Schedule s = schedule.get();
+      if (schedule.compareAndSet( s, s.reset() ))
+        break;
+    }
   }
   public void play( boolean s )
   {
-    if (ended  &&  s)
-      reset();
-    this.playing = s;
+    for (;;)
+    {
+      Schedule cur = schedule.get(), next = cur;
+      if (cur.ended  &&  s)
+        next = cur.reset();
+      if (next.playing  &&  ! s)
+      {
+        // still waiting for the render loop to pick up the resume, in which case nothing has played
+        double pos = Double.isNaN( next.tOrigin ) ? next.pos : target.wave.tGenerated() - next.tOrigin;
+        next = next.play( false, pos );
+      }
+      else if (s  &&  ! next.playing)
+        next = next.play( true, next.pos );
+      if (schedule.compareAndSet( cur, next ))
+        break;
+    }
+    target.wave.reschedule();
     if (s  &&  target.isMuted())
       target.mute( false );
     else if (! s  &&  ! target.isMuted())
       target.mute( true );
   }
   @Override
+  public double due( double t )
+  {
+    for (;;)
+    {
+      Schedule s = schedule.get();
+      if (! s.playing  ||  s.playlist == null)
+        return Double.POSITIVE_INFINITY;
+      double tOrigin = Double.isNaN( s.tOrigin ) ? t - s.pos : s.tOrigin;
+      int at = s.sectionAt( t - tOrigin );
+      if (at == s.index  &&  tOrigin == s.tOrigin)
+        return tOrigin + s.starts[at + 1];
+      Schedule next = (at < s.playlist.size()) ? s.at( tOrigin, at ) : s.end();
+      // lost a race with the event thread; look at what it published
+      if (! schedule.compareAndSet( s, next ))
+        continue;
+      if (next.ended)
+      {
+        SwingUtilities.invokeLater( new Runnable()
+        {
+          @Override
+          public void run()
+          {
+            target.mute( true );
+          }
+        });
+        return Double.POSITIVE_INFINITY;
+      }
+      if (at != s.index)
+        changeTo( next, at );
+      return tOrigin + next.starts[at + 1];
+    }
+  }
+  @Override
   public void run()
   {
     try
@@ -70,69 +203,54 @@ public class PlayList extends JButton implements Runnable
       for (;;)
       {
         Thread.sleep( 100 );
+        Schedule s = schedule.get();
         String txt = "";
-        if (playlist == null)
+        if (s.playlist == null)
           txt = "(playlist)";
-        else if (playing)
+        else if (s.playing  &&  s.index >= 0  &&  ! Double.isNaN( s.tOrigin ))
         {
-          double elapsedInSection = pos;
-          for (int n=0; n < index; n++)
-            elapsedInSection -= sectionLength( n );
-          double remaining = sectionLength( index ) - elapsedInSection;
-          int ss = (int)Math.floor( remaining );
+          double now = target.wave.tGenerated() - s.tOrigin;
+          double remaining = s.starts[s.index + 1] - now;
+          int ss = (int)Math.max( 0, Math.floor( remaining ) );
           int mm = ss/60;
           ss %= 60;
-          txt = sectionName(index) + " " + String.format("%2d:%02d",mm,ss) + " (" + name + ")";
+          txt = sectionName( s, s.index ) + " " + String.format("%2d:%02d",mm,ss) + " (" + s.name + ")";
         }
-        else if (ended)
-          txt = "ended (" + name + ")";
+        else if (s.playing)
+          txt = "starting (" + s.name + ")";
+        else if (s.ended)
+          txt = "ended (" + s.name + ")";
         else
-          txt = "paused (" + name + ")";
+          txt = "paused (" + s.name + ")";
         setText( txt );
-        if (! playing)
-          continue;
-        pos += 0.1;
-        int at = 0;
-        double t = pos;
-        for (at=0; at < playlist.getArraySize(); at++)
-        {
-          double len = sectionLength( at );
-          t -= len;
-          if (t <= 0)
-            break;
-        }
-        if (index != at)
-        {
-          index = at;
-          if (index < playlist.getArraySize())
-            changeTo( playlist.getComplex( index ) );
-          else
-          {
-            ended = true;
-            play( false );
-          }
-        }
       }
     }
     catch( InterruptedException x )
     {
     }
   }
-  private double sectionLength( int n )
-  {
-    if (n < 0  ||  n >= playlist.getArraySize())
-      return 0;
-    return playlist.getComplex( n ).getDouble( "duration", 10 );
-  }
-  private String sectionName( int n )
+  private static String sectionName( Schedule s, int n )
   {
-    if (n < 0  ||  n >= playlist.getArraySize())
+    if (n < 0  ||  n >= s.playlist.size())
       return String.valueOf( n+1 );
-    return playlist.getComplex( n ).getString( "name", String.valueOf( n+1 ) );
+    return s.playlist.getComplex( n ).getString( "name", String.valueOf( n+1 ) );
   }
-  
-  private void changeTo( JSON vars )
+
+  /**
+   * Called from the render loop: the synthesizer gets the new values right away, and the
+   * controls catch up on the event thread.
+   */
+  private void changeTo( Schedule s, int n )
   {
-    target.setSaveState( vars );
+    final JSONSnapshot vars = s.playlist.getComplex( n );
+    target.applySaveState( s.sections[n] );
+    SwingUtilities.invokeLater( new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        target.setSaveState( vars );
+      }
+    });
   }
 }
@@ -0,0 +1,676 @@
+package com.marklipson.musicgen;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summaries of all the saved settings, playlists and recordings in a folder tree, for finding
+ * presets by their parameters without opening them.
+ *
+ * Each file that holds settings is summarized as the lowest and highest value each parameter
+ * takes in it, with its number of steps and total length.  Summaries are kept in an index file,
+ * so after the first scan only files that were added or changed are read again; while running,
+ * the tree is watched and the summaries kept up to date.
+ *
+ * Queries scan one column of values per condition, so even tens of thousands of presets take
+ * around a millisecond.
+ */
+public class PresetLibrary implements Runnable
+{
+  static final int MAGIC = 0x48545049; // "HTPI"
+  static final int VERSION = 1;
+  // files bigger than this are not looked at
+  static final long MAX_FILE = 64L << 20;
+  // how far into a file to look for the start of the JSON
+  static final int SNIFF = 4096;
+  // changes that arrive within this long of each other are handled together (ms)
+  static final long SETTLE = 200;
+
+  /**
+   * Summary of one file.
+   */
+  public static class Preset
+  {
+    public final File file;
+    public final long modified;
+    public final long length;
+    /** steps in a playlist or recording, 0 for plain settings */
+    public final int steps;
+    /** total length in seconds, 0 for plain settings */
+    public final double duration;
+    // lowest and highest value of each parameter, NaN where it is never given; null if the file
+    // is not a preset at all
+    final double[] min, max;
+
+    Preset( File file, long modified, long length, int steps, double duration, double[] min, double[] max )
+    {
+      this.file = file;
+      this.modified = modified;
+      this.length = length;
+      this.steps = steps;
+      this.duration = duration;
+      this.min = min;
+      this.max = max;
+    }
+    boolean isPreset()
+    {
+      return min != null;
+    }
+    public double getMin( Parameters.Parameter p )
+    {
+      return min[p.id];
+    }
+    public double getMax( Parameters.Parameter p )
+    {
+      return max[p.id];
+    }
+    @Override
+    public String toString()
+    {
+      return file.toString();
+    }
+  }
+
+  /**
+   * Conditions a preset has to meet.
+   */
+  public static class Query
+  {
+    final List<String> keys = new ArrayList<String>();
+    final List<double[]> ranges = new ArrayList<double[]>();
+    double minDuration = 0, maxDuration = Double.POSITIVE_INFINITY;
+
+    /**
+     * The parameter saved under a key stays between two values (in real units, i.e. hz), inclusive.
+     */
+    public Query range( String key, double lo, double hi )
+    {
+      keys.add( key );
+      ranges.add( new double[] { lo, hi } );
+      return this;
+    }
+    /**
+     * Total length, in seconds, is within this range.
+     */
+    public Query duration( double lo, double hi )
+    {
+      minDuration = lo;
+      maxDuration = hi;
+      return this;
+    }
+  }
+
+  // presets in column form, for queries
+  private static class Table
+  {
+    final Preset[] rows;
+    final double[] duration;
+    // [parameter][row]
+    final double[][] min, max;
+
+    Table( List<Preset> presets, int nParams )
+    {
+      rows = presets.toArray( new Preset[ presets.size() ] );
+      duration = new double[ rows.length ];
+      min = new double[ nParams ][ rows.length ];
+      max = new double[ nParams ][ rows.length ];
+      for (int r=0; r < rows.length; r++)
+      {
+        duration[r] = rows[r].duration;
+        for (int p=0; p < nParams; p++)
+        {
+          min[p][r] = rows[r].min[p];
+          max[p][r] = rows[r].max[p];
+        }
+      }
+    }
+  }
+
+  private final File root;
+  private final Parameters params;
+  private final File indexFile;
+  // every file looked at, presets or not, by path relative to the root
+  private final Map<String,Preset> files = new HashMap<String,Preset>();
+  // summaries changed since the index was saved
+  private boolean changed;
+  // built when needed for a query, and dropped when the summaries change
+  private Table table;
+  private Thread thread;
+  private WatchService watcher;
+
+  /**
+   * @param indexFile  where to keep the summaries; best outside the tree
+   */
+  public PresetLibrary( File root, Parameters params, File indexFile )
+  {
+    this.root = root.getAbsoluteFile();
+    this.params = params;
+    this.indexFile = indexFile;
+  }
+
+  /**
+   * Load the index, then bring it up to date and keep it that way in the background.
+   */
+  public void start()
+  {
+    loadIndex();
+    thread = new Thread( this, "preset library" );
+    thread.setDaemon( true );
+    thread.setPriority( Thread.MIN_PRIORITY );
+    thread.start();
+  }
+  public void stop()
+  {
+    if (thread != null)
+      thread.interrupt();
+    try
+    {
+      if (watcher != null)
+        watcher.close();
+    }
+    catch( IOException x )
+    {
+    }
+  }
+  @Override
+  public void run()
+  {
+    try
+    {
+      watcher = FileSystems.getDefault().newWatchService();
+    }
+    catch( IOException x )
+    {
+      // the library is still brought up to date once, just not kept that way
+      x.printStackTrace( System.err );
+    }
+    rescan();
+    save();
+    if (watcher == null)
+      return;
+    try
+    {
+      for (;;)
+      {
+        WatchKey key = watcher.take();
+        Set<Path> dirty = new HashSet<Path>();
+        boolean rescan = false;
+        // collect everything that happens in a burst, i.e. while a folder is copied in
+        while (key != null)
+        {
+          Path dir = (Path)key.watchable();
+          for (WatchEvent<?> e : key.pollEvents())
+          {
+            if (e.kind() == StandardWatchEventKinds.OVERFLOW)
+              rescan = true;
+            else
+              dirty.add( dir.resolve( (Path)e.context() ) );
+          }
+          if (! key.reset())
+            rescan = true;
+          key = watcher.poll( SETTLE, TimeUnit.MILLISECONDS );
+        }
+        if (rescan)
+          rescan();
+        else
+          for (Path p : dirty)
+          {
+            // one path that cannot be read should not stop the others, or later changes
+            try
+            {
+              update( p );
+            }
+            catch( IOException x )
+            {
+              x.printStackTrace( System.err );
+            }
+          }
+        save();
+      }
+    }
+    catch( InterruptedException x )
+    {
+    }
+    catch( ClosedWatchServiceException x )
+    {
+    }
+  }
+  private void rescan()
+  {
+    try
+    {
+      scan();
+    }
+    catch( IOException x )
+    {
+      x.printStackTrace( System.err );
+    }
+  }
+  private void save()
+  {
+    try
+    {
+      saveIndex();
+    }
+    catch( IOException x )
+    {
+      // i.e. the disk is full; the summaries are still in memory, so try again next time
+      x.printStackTrace( System.err );
+      synchronized( this )
+      {
+        changed = true;
+      }
+    }
+  }
+
+  /**
+   * Bring every summary up to date, reading only files that are new or have changed.
+   */
+  public void scan() throws IOException
+  {
+    final Set<String> seen = new HashSet<String>();
+    if (! root.isDirectory())
+      return;
+    Files.walkFileTree( root.toPath(), new SimpleFileVisitor<Path>()
+    {
+      @Override
+      public FileVisitResult preVisitDirectory( Path dir, BasicFileAttributes attrs )
+      {
+        watch( dir );
+        return FileVisitResult.CONTINUE;
+      }
+      @Override
+      public FileVisitResult visitFile( Path file, BasicFileAttributes attrs )
+      {
+        if (attrs.isRegularFile())
+        {
+          seen.add( relative( file ) );
+          update( file, attrs.lastModifiedTime().toMillis(), attrs.size() );
+        }
+        return FileVisitResult.CONTINUE;
+      }
+      @Override
+      public FileVisitResult visitFileFailed( Path file, IOException x )
+      {
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    synchronized( this )
+    {
+      if (files.keySet().retainAll( seen ))
+        touched();
+    }
+  }
+  /**
+   * Watch a folder for changes.  If that fails, the folder is still summarized, just not watched.
+   */
+  private void watch( Path dir )
+  {
+    if (watcher == null)
+      return;
+    try
+    {
+      dir.register( watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE );
+    }
+    catch( NoSuchFileException x )
+    {
+      // removed while being walked; its delete event takes care of it
+    }
+    catch( IOException x )
+    {
+      // i.e. out of watches on a large tree
+      x.printStackTrace( System.err );
+    }
+  }
+  /**
+   * Something happened to a path: summarize it again, forget it, or scan it if it is a new folder.
+   */
+  private void update( Path path ) throws IOException
+  {
+    File f = path.toFile();
+    if (f.isDirectory())
+    {
+      Files.walkFileTree( path, new SimpleFileVisitor<Path>()
+      {
+        @Override
+        public FileVisitResult preVisitDirectory( Path dir, BasicFileAttributes attrs )
+        {
+          watch( dir );
+          return FileVisitResult.CONTINUE;
+        }
+        @Override
+        public FileVisitResult visitFile( Path file, BasicFileAttributes attrs )
+        {
+          if (attrs.isRegularFile())
+            update( file, attrs.lastModifiedTime().toMillis(), attrs.size() );
+          return FileVisitResult.CONTINUE;
+        }
+        @Override
+        public FileVisitResult visitFileFailed( Path file, IOException x )
+        {
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    }
+    else if (f.isFile())
+      update( path, f.lastModified(), f.length() );
+    else
+    {
+      // deleted: forget it, and anything that was in it
+      String rel = relative( path );
+      synchronized( this )
+      {
+        for (Iterator<String> i = files.keySet().iterator(); i.hasNext();)
+        {
+          String k = i.next();
+          if (k.equals( rel )  ||  k.startsWith( rel + File.separator ))
+          {
+            i.remove();
+            touched();
+          }
+        }
+      }
+    }
+  }
+  private void update( Path path, long modified, long length )
+  {
+    String rel = relative( path );
+    synchronized( this )
+    {
+      Preset known = files.get( rel );
+      if (known != null  &&  known.modified == modified  &&  known.length == length)
+        return;
+    }
+    Preset p = summarize( path.toFile(), modified, length );
+    synchronized( this )
+    {
+      files.put( rel, p );
+      touched();
+    }
+  }
+  private void touched()
+  {
+    changed = true;
+    table = null;
+  }
+  private String relative( Path path )
+  {
+    return root.toPath().relativize( path.toAbsolutePath() ).toString();
+  }
+
+  /**
+   * Summary of a file; if it does not hold settings, the summary says so.
+   */
+  Preset summarize( File f, long modified, long length )
+  {
+    int n = params.size();
+    double[] min = new double[ n ], max = new double[ n ];
+    Arrays.fill( min, Double.NaN );
+    Arrays.fill( max, Double.NaN );
+    int steps = 0;
+    double duration = 0;
+    boolean found = false;
+    try
+    {
+      if (length <= MAX_FILE  &&  SessionFile.isSessionFile( f ))
+      {
+        try( SessionFile.Reader in = new SessionFile.Reader( f ) )
+        {
+          for (JSON step; (step = in.next()) != null;)
+            found |= include( params.read( step ), min, max );
+          steps = in.getStepCount();
+          duration = in.getDuration();
+        }
+      }
+      else if (length <= MAX_FILE  &&  startsLikeJSON( f ))
+      {
+        JSON json = JSON.loadFromFile( f );
+        if (json != null  &&  json.isObject())
+          found = include( params.read( json ), min, max );
+        else if (json != null  &&  json.isArray())
+        {
+          for (JSON step : json)
+          {
+            if (step == null  ||  ! step.isObject())
+              continue;
+            found |= include( params.read( step ), min, max );
+            duration += SessionFile.stepDuration( step.get( "duration", false ) );
+            steps ++;
+          }
+        }
+      }
+    }
+    catch( IOException x )
+    {
+    }
+    catch( RuntimeException x )
+    {
+      // not valid JSON
+    }
+    if (! found)
+      return new Preset( f, modified, length, 0, 0, null, null );
+    return new Preset( f, modified, length, steps, duration, min, max );
+  }
+  /**
+   * Whether a file starts with an object or array after any white space, as
+   * {@link JSON#loadFromFile(File)} requires, so that other files in the folder are not read in full.
+   */
+  static boolean startsLikeJSON( File f ) throws IOException
+  {
+    try( InputStream in = new BufferedInputStream( new FileInputStream( f ) ) )
+    {
+      for (int n=0; n < SNIFF; n++)
+      {
+        int ch = in.read();
+        if (ch == '{'  ||  ch == '[')
+          return true;
+        // the same characters String.trim() skips
+        if (ch == -1  ||  ch > ' ')
+          return false;
+      }
+      return false;
+    }
+  }
+  private static boolean include( double[] values, double[] min, double[] max )
+  {
+    boolean any = false;
+    for (int n=0; n < values.length; n++)
+    {
+      double v = values[n];
+      if (Double.isNaN( v ))
+        continue;
+      any = true;
+      if (! (v >= min[n]))
+        min[n] = v;
+      if (! (v <= max[n]))
+        max[n] = v;
+    }
+    return any;
+  }
+
+  /**
+   * Whether a file is a known preset.
+   */
+  public synchronized boolean contains( File f )
+  {
+    Preset p = files.get( relative( f.toPath() ) );
+    return p != null  &&  p.isPreset();
+  }
+  /**
+   * Number of presets.
+   */
+  public int size()
+  {
+    return getTable().rows.length;
+  }
+  /**
+   * Presets that meet all of the query's conditions.
+   */
+  public List<Preset> find( Query q )
+  {
+    Table t = getTable();
+    int nConditions = q.keys.size();
+    int[] ids = new int[ nConditions ];
+    for (int c=0; c < nConditions; c++)
+    {
+      Parameters.Parameter p = params.get( q.keys.get( c ) );
+      if (p == null)
+        throw new IllegalArgumentException( "unknown parameter: " + q.keys.get( c ) );
+      ids[c] = p.id;
+    }
+    // narrow down one condition at a time, each a pass over one column
+    int[] rows = new int[ t.rows.length ];
+    int nRows = 0;
+    for (int r=0; r < t.rows.length; r++)
+      if (t.duration[r] >= q.minDuration  &&  t.duration[r] <= q.maxDuration)
+        rows[nRows++] = r;
+    for (int c=0; c < nConditions; c++)
+    {
+      double[] min = t.min[ ids[c] ], max = t.max[ ids[c] ];
+      double lo = q.ranges.get( c )[0], hi = q.ranges.get( c )[1];
+      int kept = 0;
+      for (int i=0; i < nRows; i++)
+      {
+        int r = rows[i];
+        if (min[r] >= lo  &&  max[r] <= hi)
+          rows[kept++] = r;
+      }
+      nRows = kept;
+    }
+    List<Preset> out = new ArrayList<Preset>( nRows );
+    for (int i=0; i < nRows; i++)
+      out.add( t.rows[ rows[i] ] );
+    return out;
+  }
+  private synchronized Table getTable()
+  {
+    if (table == null)
+    {
+      List<Preset> presets = new ArrayList<Preset>();
+      for (Preset p : files.values())
+        if (p.isPreset())
+          presets.add( p );
+      table = new Table( presets, params.size() );
+    }
+    return table;
+  }
+
+  /**
+   * Read summaries saved by {@link #saveIndex()}.  An index that is unreadable, or was made with
+   * different parameters, is ignored, and everything is summarized again.
+   */
+  public void loadIndex()
+  {
+    if (indexFile == null  ||  ! indexFile.exists())
+      return;
+    try( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( indexFile ) ) ) )
+    {
+      if (in.readInt() != MAGIC  ||  in.readInt() != VERSION)
+        return;
+      int nParams = in.readInt();
+      if (nParams != params.size())
+        return;
+      for (int n=0; n < nParams; n++)
+        if (! in.readUTF().equals( params.get( n ).key ))
+          return;
+      Map<String,Preset> loaded = new HashMap<String,Preset>();
+      for (int count = in.readInt(); count > 0; count--)
+      {
+        String rel = in.readUTF();
+        long modified = in.readLong();
+        long length = in.readLong();
+        int steps = in.readInt();
+        double duration = in.readDouble();
+        double[] min = null, max = null;
+        if (in.readBoolean())
+        {
+          min = new double[ nParams ];
+          max = new double[ nParams ];
+          for (int n=0; n < nParams; n++)
+          {
+            min[n] = in.readDouble();
+            max[n] = in.readDouble();
+          }
+        }
+        loaded.put( rel, new Preset( new File( root, rel ), modified, length, steps, duration, min, max ) );
+      }
+      synchronized( this )
+      {
+        files.putAll( loaded );
+        table = null;
+      }
+    }
+    catch( IOException x )
+    {
+      // start over
+    }
+  }
+  /**
+   * Save the summaries, if anything changed since they were last saved or loaded.
+   */
+  public void saveIndex() throws IOException
+  {
+    if (indexFile == null)
+      return;
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream( bytes );
+    synchronized( this )
+    {
+      if (! changed)
+        return;
+      changed = false;
+      out.writeInt( MAGIC );
+      out.writeInt( VERSION );
+      int nParams = params.size();
+      out.writeInt( nParams );
+      for (int n=0; n < nParams; n++)
+        out.writeUTF( params.get( n ).key );
+      out.writeInt( files.size() );
+      for (Map.Entry<String,Preset> e : files.entrySet())
+      {
+        Preset p = e.getValue();
+        out.writeUTF( e.getKey() );
+        out.writeLong( p.modified );
+        out.writeLong( p.length );
+        out.writeInt( p.steps );
+        out.writeDouble( p.duration );
+        out.writeBoolean( p.isPreset() );
+        if (p.isPreset())
+          for (int n=0; n < nParams; n++)
+          {
+            out.writeDouble( p.min[n] );
+            out.writeDouble( p.max[n] );
+          }
+      }
+    }
+    out.close();
+    SettingsWriter.replace( indexFile, bytes.toByteArray() );
+  }
+}
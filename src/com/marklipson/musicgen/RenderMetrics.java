@@ -0,0 +1,136 @@
+package com.marklipson.musicgen;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+/**
+ * Timing of the render loop: how long each block takes to generate, how much of the block's
+ * duration that uses up, how much audio is still buffered when it is written, and how long the
+ * custom function takes to evaluate.  Recording is cheap and never allocates, so it is always on.
+ *
+ * A block is "late" if less than a block's worth of audio was still buffered when it was written,
+ * and an underrun if nothing at all was.
+ *
+ * Recording is done by the render thread only; the numbers can be read from anywhere, through
+ * {@link #toJSON()} or JMX (see {@link #register()}).
+ */
+public class RenderMetrics implements RenderMetricsMBean
+{
+  /**
+   * Only one in this many custom function evaluations is timed.
+   */
+  static final int CUSTOM_SAMPLING = 64;
+
+  // nanoseconds per block
+  private final Histogram generate = new Histogram();
+  // generation time as a share of block duration, in tenths of a percent
+  private final Histogram load = new Histogram();
+  // buffered audio at write, in milliseconds
+  private final Histogram buffer = new Histogram();
+  // nanoseconds per custom function evaluation
+  private final Histogram customEval = new Histogram();
+  private volatile long underruns, lateBlocks;
+
+  /**
+   * A block has been generated and is about to be written out.
+   *
+   * @param seconds      duration of the block
+   * @param nanos        time taken to generate it
+   * @param bufferLevel  seconds of audio still buffered
+   */
+  public void block( double seconds, long nanos, double bufferLevel )
+  {
+    // nothing is buffered before the first block, which is not a problem
+    if (generate.getCount() > 0)
+    {
+      if (bufferLevel <= 0)
+        underruns ++;
+      else if (bufferLevel < seconds)
+        lateBlocks ++;
+    }
+    generate.record( nanos );
+    load.record( Math.round( nanos / (seconds * 1e6) ) );
+    buffer.record( Math.round( bufferLevel * 1000 ) );
+  }
+  /**
+   * A custom function was evaluated, in the given time.
+   */
+  public void customEvaluated( long nanos )
+  {
+    customEval.record( nanos );
+  }
+
+  @Override
+  public long getBlocks()
+  {
+    return generate.getCount();
+  }
+  @Override
+  public long getUnderruns()
+  {
+    return underruns;
+  }
+  @Override
+  public long getLateBlocks()
+  {
+    return lateBlocks;
+  }
+  @Override
+  public double getGenerateMeanMicros()
+  {
+    return generate.getMean() / 1000;
+  }
+  @Override
+  public long getGenerateP99Micros()
+  {
+    return generate.getPercentile( 99 ) / 1000;
+  }
+  @Override
+  public long getGenerateMaxMicros()
+  {
+    return generate.getMax() / 1000;
+  }
+  @Override
+  public double getLoadP99Percent()
+  {
+    return load.getPercentile( 99 ) / 10.0;
+  }
+  @Override
+  public long getBufferP1Millis()
+  {
+    return buffer.getPercentile( 1 );
+  }
+  @Override
+  public long getCustomEvalP99Nanos()
+  {
+    return customEval.getPercentile( 99 );
+  }
+
+  public JSON toJSON()
+  {
+    JSON json = JSON.createObject();
+    json.set( "blocks", getBlocks() );
+    json.set( "underruns", underruns );
+    json.set( "lateBlocks", lateBlocks );
+    json.set( "generateMicros", generate.toJSON( 1000 ) );
+    json.set( "loadPercent", load.toJSON( 10 ) );
+    json.set( "bufferMillis", buffer.toJSON( 1 ) );
+    json.set( "customEvalNanos", customEval.toJSON( 1 ) );
+    return json;
+  }
+  /**
+   * Make these visible to JMX clients, as com.marklipson.musicgen:type=RenderMetrics.
+   */
+  public void register()
+  {
+    try
+    {
+      ManagementFactory.getPlatformMBeanServer().registerMBean( this, new ObjectName( "com.marklipson.musicgen:type=RenderMetrics" ) );
+    }
+    catch( Exception x )
+    {
+      x.printStackTrace( System.err );
+    }
+  }
+}
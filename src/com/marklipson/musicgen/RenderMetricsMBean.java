@@ -0,0 +1,23 @@
+package com.marklipson.musicgen;
+
+/**
+ * Management interface for {@link RenderMetrics}.  Each getter names its unit.
+ */
+public interface RenderMetricsMBean
+{
+  long getBlocks();
+  long getUnderruns();
+  long getLateBlocks();
+  double getGenerateMeanMicros();
+  long getGenerateP99Micros();
+  long getGenerateMaxMicros();
+  /**
+   * Share of the block's duration spent generating it, in percent, at the 99th percentile.
+   */
+  double getLoadP99Percent();
+  /**
+   * Buffered audio when a block was written, in milliseconds, at the 1st percentile.
+   */
+  long getBufferP1Millis();
+  long getCustomEvalP99Nanos();
+}
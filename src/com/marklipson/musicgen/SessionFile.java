@@ -0,0 +1,575 @@
+package com.marklipson.musicgen;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary form of a session (a JSON array of settings, each with a "duration").
+ *
+ * Layout:
+ *   "HTS" version
+ *   records - each one lists only the keys that changed since the previous record;
+ *             integers and millisecond-precision numbers are stored as varint deltas
+ *   footer  - key dictionary, step count, total duration, seek index
+ *   offset of footer (4 bytes)
+ *
+ * Every {@link #INDEX_INTERVAL} seconds a key frame record holding the complete state is written,
+ * and the seek index points at it, so any time can be reached with a binary search and a short
+ * scan.  The footer comes last so that sessions can be converted while they are being read.
+ */
+public class SessionFile
+{
+  static final byte[] MAGIC = { 'H', 'T', 'S', 1 };
+  /**
+   * Seconds between key frames.
+   */
+  static final double INDEX_INTERVAL = 60;
+  /**
+   * Steps without a duration last this long, as in {@link PlayList}.
+   */
+  static final double DEFAULT_DURATION = 10;
+
+  // value types, stored in the low bits of each change
+  static final int T_INT = 0;
+  static final int T_MILLI = 1;
+  static final int T_DOUBLE = 2;
+  static final int T_STRING = 3;
+  static final int T_TRUE = 4;
+  static final int T_FALSE = 5;
+  static final int T_NULL = 6;
+  static final int T_REMOVED = 7;
+  static final int T_COMPLEX = 8;
+  static final int TYPE_BITS = 4;
+
+  // record flags
+  static final int F_KEYFRAME = 1;
+
+  static double stepDuration( Object v )
+  {
+    if (v instanceof Number)
+      return ((Number)v).doubleValue();
+    return DEFAULT_DURATION;
+  }
+
+  /**
+   * Writes steps one at a time.
+   */
+  public static class Writer implements Closeable
+  {
+    private OutputStream out;
+    private int offset;
+    // key dictionary and the state of each key
+    private Map<String,Integer> keyIds = new HashMap<String,Integer>();
+    private List<String> keys = new ArrayList<String>();
+    private Object[] values = new Object[ 32 ];
+    private boolean[] present = new boolean[ 32 ];
+    private long[] prevLong = new long[ 32 ];
+    // seek index
+    private int nSteps;
+    private double t;
+    private double tKeyframe = -INDEX_INTERVAL;
+    private List<double[]> index = new ArrayList<double[]>();
+    private byte[] scratch = new byte[ 10 ];
+
+    public Writer( File f ) throws IOException
+    {
+      this( new BufferedOutputStream( new FileOutputStream( f ) ) );
+    }
+    public Writer( OutputStream out ) throws IOException
+    {
+      this.out = out;
+      write( MAGIC, MAGIC.length );
+    }
+    private void write( byte[] b, int len ) throws IOException
+    {
+      out.write( b, 0, len );
+      offset += len;
+    }
+    private void writeVarint( long v ) throws IOException
+    {
+      int len = 0;
+      while ((v & ~0x7FL) != 0)
+      {
+        scratch[len++] = (byte)((v & 0x7F) | 0x80);
+        v >>>= 7;
+      }
+      scratch[len++] = (byte)v;
+      write( scratch, len );
+    }
+    private void writeDelta( long v ) throws IOException
+    {
+      // zig-zag, so small negative numbers stay small
+      writeVarint( (v << 1) ^ (v >> 63) );
+    }
+    private void writeString( String s ) throws IOException
+    {
+      byte[] b = s.getBytes( JSONStream.UTF8 );
+      writeVarint( b.length );
+      write( b, b.length );
+    }
+    private int keyId( String key )
+    {
+      Integer id = keyIds.get( key );
+      if (id == null)
+      {
+        id = keys.size();
+        keyIds.put( key, id );
+        keys.add( key );
+        if (id >= values.length)
+        {
+          values = Arrays.copyOf( values, id * 2 );
+          present = Arrays.copyOf( present, id * 2 );
+          prevLong = Arrays.copyOf( prevLong, id * 2 );
+        }
+      }
+      return id;
+    }
+    private void writeChange( int id, Object v ) throws IOException
+    {
+      if (v == null)
+        writeVarint( id << TYPE_BITS | T_NULL );
+      else if (v instanceof Integer  ||  v instanceof Long  ||  v instanceof Short  ||  v instanceof Byte)
+      {
+        long lv = ((Number)v).longValue();
+        writeVarint( id << TYPE_BITS | T_INT );
+        writeDelta( lv - prevLong[id] );
+        prevLong[id] = lv;
+      }
+      else if (v instanceof Double  ||  v instanceof Float)
+      {
+        double d = ((Number)v).doubleValue();
+        long ms = Math.round( d * 1000 );
+        if (ms / 1000.0 == d)
+        {
+          writeVarint( id << TYPE_BITS | T_MILLI );
+          writeDelta( ms - prevLong[id] );
+          prevLong[id] = ms;
+        }
+        else
+        {
+          writeVarint( id << TYPE_BITS | T_DOUBLE );
+          long bits = Double.doubleToLongBits( d );
+          for (int n=0; n < 8; n++)
+            scratch[n] = (byte)(bits >>> (56 - n*8));
+          write( scratch, 8 );
+        }
+      }
+      else if (v instanceof Boolean)
+        writeVarint( id << TYPE_BITS | (((Boolean)v) ? T_TRUE : T_FALSE) );
+      else if (v instanceof JSON)
+      {
+        writeVarint( id << TYPE_BITS | T_COMPLEX );
+        writeString( v.toString() );
+      }
+      else
+      {
+        writeVarint( id << TYPE_BITS | T_STRING );
+        writeString( v.toString() );
+      }
+    }
+    /**
+     * Add the next step of the session.
+     */
+    public void append( JSON step ) throws IOException
+    {
+      boolean keyframe = (t - tKeyframe >= INDEX_INTERVAL);
+      String[] fields = step.getFields();
+      Object[] stepValues = new Object[ fields.length ];
+      int[] ids = new int[ fields.length ];
+      boolean[] inStep = new boolean[ keys.size() + fields.length ];
+      for (int n=0; n < fields.length; n++)
+      {
+        ids[n] = keyId( fields[n] );
+        stepValues[n] = step.get( fields[n], false );
+        inStep[ ids[n] ] = true;
+      }
+      // work out which keys changed
+      List<Integer> removed = new ArrayList<Integer>();
+      int nChanges = 0;
+      if (keyframe)
+      {
+        Arrays.fill( present, false );
+        Arrays.fill( prevLong, 0 );
+        nChanges = fields.length;
+      }
+      else
+      {
+        for (int id=0; id < keys.size(); id++)
+          if (present[id]  &&  ! inStep[id])
+            removed.add( id );
+        nChanges = removed.size();
+        for (int n=0; n < fields.length; n++)
+          if (! present[ ids[n] ]  ||  ! same( values[ ids[n] ], stepValues[n] ))
+            nChanges ++;
+      }
+      if (keyframe)
+      {
+        index.add( new double[] { t, nSteps, offset } );
+        tKeyframe = t;
+      }
+      writeVarint( keyframe ? F_KEYFRAME : 0 );
+      writeVarint( nChanges );
+      for (int id : removed)
+      {
+        writeVarint( id << TYPE_BITS | T_REMOVED );
+        present[id] = false;
+        values[id] = null;
+      }
+      for (int n=0; n < fields.length; n++)
+      {
+        int id = ids[n];
+        if (keyframe  ||  ! present[id]  ||  ! same( values[id], stepValues[n] ))
+          writeChange( id, stepValues[n] );
+        present[id] = true;
+        values[id] = stepValues[n];
+      }
+      t += stepDuration( step.get( "duration", false ) );
+      nSteps ++;
+    }
+    private static boolean same( Object a, Object b )
+    {
+      if (a == null)
+        return b == null;
+      if (b == null  ||  a.getClass() != b.getClass())
+        return false;
+      return a.equals( b );
+    }
+    @Override
+    public void close() throws IOException
+    {
+      int footer = offset;
+      writeVarint( keys.size() );
+      for (String key : keys)
+        writeString( key );
+      writeVarint( nSteps );
+      writeVarint( Double.doubleToLongBits( t ) );
+      writeVarint( index.size() );
+      for (double[] entry : index)
+      {
+        writeVarint( Double.doubleToLongBits( entry[0] ) );
+        writeVarint( (long)entry[1] );
+        writeVarint( (long)entry[2] );
+      }
+      for (int n=0; n < 4; n++)
+        scratch[n] = (byte)(footer >>> (24 - n*8));
+      write( scratch, 4 );
+      out.close();
+    }
+  }
+
+  /**
+   * Reads steps from a memory-mapped session file, in order or from any point in time.
+   */
+  public static class Reader implements Closeable
+  {
+    private RandomAccessFile file;
+    private ByteBuffer data;
+    private String[] keys;
+    private int durationId;
+    private int nSteps;
+    private double totalDuration;
+    // seek index
+    private double[] indexTime;
+    private int[] indexStep;
+    private int[] indexOffset;
+    // state as of the most recently applied record
+    private Object[] values;
+    private boolean[] present;
+    private long[] prevLong;
+    // the step that next() will return, and when it starts
+    private int step;
+    private double tStep;
+    private boolean pending;
+
+    public Reader( File f ) throws IOException
+    {
+      file = new RandomAccessFile( f, "r" );
+      FileChannel channel = file.getChannel();
+      data = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+      for (int n=0; n < MAGIC.length; n++)
+        if (data.capacity() < MAGIC.length + 4  ||  data.get( n ) != MAGIC[n])
+          throw new IOException( "not a session file: " + f );
+      data.position( data.capacity() - 4 );
+      data.position( data.getInt() );
+      keys = new String[ (int)readVarint() ];
+      for (int n=0; n < keys.length; n++)
+        keys[n] = readString();
+      durationId = Arrays.asList( keys ).indexOf( "duration" );
+      nSteps = (int)readVarint();
+      totalDuration = Double.longBitsToDouble( readVarint() );
+      int nIndex = (int)readVarint();
+      indexTime = new double[ nIndex ];
+      indexStep = new int[ nIndex ];
+      indexOffset = new int[ nIndex ];
+      for (int n=0; n < nIndex; n++)
+      {
+        indexTime[n] = Double.longBitsToDouble( readVarint() );
+        indexStep[n] = (int)readVarint();
+        indexOffset[n] = (int)readVarint();
+      }
+      values = new Object[ keys.length ];
+      present = new boolean[ keys.length ];
+      prevLong = new long[ keys.length ];
+      data.position( MAGIC.length );
+    }
+    public int getStepCount()
+    {
+      return nSteps;
+    }
+    /**
+     * Total length of the session, in seconds.
+     */
+    public double getDuration()
+    {
+      return totalDuration;
+    }
+    /**
+     * When the step returned by the next call to {@link #next()} starts.
+     */
+    public double getStepTime()
+    {
+      return tStep;
+    }
+    private long readVarint()
+    {
+      long v = 0;
+      for (int shift=0;; shift += 7)
+      {
+        byte b = data.get();
+        v |= (long)(b & 0x7F) << shift;
+        if (b >= 0)
+          return v;
+      }
+    }
+    private long readDelta()
+    {
+      long v = readVarint();
+      return (v >>> 1) ^ -(v & 1);
+    }
+    private String readString()
+    {
+      byte[] b = new byte[ (int)readVarint() ];
+      data.get( b );
+      return new String( b, JSONStream.UTF8 );
+    }
+    private void applyRecord()
+    {
+      int flags = (int)readVarint();
+      if ((flags & F_KEYFRAME) != 0)
+      {
+        Arrays.fill( present, false );
+        Arrays.fill( values, null );
+        Arrays.fill( prevLong, 0 );
+      }
+      int nChanges = (int)readVarint();
+      for (int n=0; n < nChanges; n++)
+      {
+        int change = (int)readVarint();
+        int id = change >>> TYPE_BITS;
+        Object v = null;
+        switch( change & ((1 << TYPE_BITS) - 1) )
+        {
+        case T_INT:
+          prevLong[id] += readDelta();
+          long lv = prevLong[id];
+          if (Math.abs( lv ) < Integer.MAX_VALUE)
+            v = (int)lv;
+          else
+            v = lv;
+          break;
+        case T_MILLI:
+          prevLong[id] += readDelta();
+          v = prevLong[id] / 1000.0;
+          break;
+        case T_DOUBLE:
+          v = data.getDouble();
+          break;
+        case T_STRING:
+          v = readString();
+          break;
+        case T_TRUE:
+          v = Boolean.TRUE;
+          break;
+        case T_FALSE:
+          v = Boolean.FALSE;
+          break;
+        case T_COMPLEX:
+          v = JSON.parse( readString() );
+          break;
+        case T_REMOVED:
+          present[id] = false;
+          values[id] = null;
+          continue;
+        }
+        present[id] = true;
+        values[id] = v;
+      }
+    }
+    private double currentDuration()
+    {
+      if (durationId == -1  ||  ! present[durationId])
+        return DEFAULT_DURATION;
+      return stepDuration( values[durationId] );
+    }
+    /**
+     * The next step, or null at the end.
+     */
+    public JSON next()
+    {
+      if (step >= nSteps)
+        return null;
+      if (! pending)
+        applyRecord();
+      pending = false;
+      JSON out = JSON.createObject();
+      for (int id=0; id < keys.length; id++)
+        if (present[id])
+          out.set( keys[id], values[id], false );
+      tStep += currentDuration();
+      step ++;
+      return out;
+    }
+    /**
+     * Position the reader so that {@link #next()} returns the step that is playing at the given time.
+     *
+     * @return index of that step
+     */
+    public int seek( double seconds )
+    {
+      int lo = 0, hi = indexTime.length - 1;
+      while (lo < hi)
+      {
+        int mid = (lo + hi + 1) >>> 1;
+        if (indexTime[mid] <= seconds)
+          lo = mid;
+        else
+          hi = mid - 1;
+      }
+      step = 0;
+      tStep = 0;
+      pending = false;
+      data.position( MAGIC.length );
+      if (indexTime.length > 0)
+      {
+        step = indexStep[lo];
+        tStep = indexTime[lo];
+        data.position( indexOffset[lo] );
+      }
+      while (step < nSteps)
+      {
+        applyRecord();
+        double duration = currentDuration();
+        if (tStep + duration > seconds  ||  step == nSteps - 1)
+        {
+          pending = true;
+          break;
+        }
+        tStep += duration;
+        step ++;
+      }
+      return step;
+    }
+    @Override
+    public void close() throws IOException
+    {
+      file.close();
+    }
+  }
+
+  /**
+   * Whether a file is in this format (otherwise, it might be JSON).
+   */
+  public static boolean isSessionFile( File f )
+  {
+    try( InputStream in = new FileInputStream( f ) )
+    {
+      byte[] b = new byte[ MAGIC.length ];
+      return in.read( b ) == b.length  &&  Arrays.equals( b, MAGIC );
+    }
+    catch( IOException x )
+    {
+      return false;
+    }
+  }
+
+  /**
+   * Convert a JSON session to this format.
+   */
+  public static void fromJSON( File json, File session ) throws IOException
+  {
+    try( JSONStream.ArrayReader in = new JSONStream.ArrayReader( json );
+         Writer out = new Writer( session ) )
+    {
+      for (JSON step; (step = in.next()) != null;)
+        out.append( step );
+    }
+  }
+
+  /**
+   * Convert a session in this format back to JSON.
+   */
+  public static void toJSON( File session, File json ) throws IOException
+  {
+    try( Reader in = new Reader( session );
+         JSONStream.ArrayWriter out = new JSONStream.ArrayWriter( json ) )
+    {
+      for (JSON step; (step = in.next()) != null;)
+        out.append( step );
+    }
+  }
+
+  /**
+   * Load a session in this format as a JSON array.
+   */
+  public static JSON load( File session ) throws IOException
+  {
+    JSON out = JSON.createArray();
+    try( Reader in = new Reader( session ) )
+    {
+      for (JSON step; (step = in.next()) != null;)
+        out.addArrayElement( step );
+    }
+    return out;
+  }
+
+  /**
+   * Usage: SessionFile <input> <output> - converts JSON to binary, or binary to JSON.
+   */
+  public static void main( String[] args )
+  {
+    if (args.length < 2)
+    {
+      System.out.println( "Usage:" );
+      System.out.println( "java SessionFile <Input File> <Output File>" );
+      return;
+    }
+    try
+    {
+      File in = new File( args[0] );
+      File out = new File( args[1] );
+      if (isSessionFile( in ))
+        toJSON( in, out );
+      else
+        fromJSON( in, out );
+      System.out.println( in.length() + " -> " + out.length() + " bytes" );
+    }
+    catch( IOException x )
+    {
+      x.printStackTrace( System.err );
+    }
+  }
+}
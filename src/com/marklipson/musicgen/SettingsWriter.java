@@ -0,0 +1,198 @@
+package com.marklipson.musicgen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Keeps a settings file up to date in the background.  Whatever changes the settings calls
+ * {@link #changed()}; a burst of changes is written once, after things go quiet for a moment or
+ * after a couple of seconds at most.  Nothing happens while the settings are left alone.
+ *
+ * The file is replaced by writing a new one next to it, syncing it to disk and renaming it into
+ * place, so a crash leaves either the old settings or the new ones, never a partly written file.
+ */
+public class SettingsWriter implements Runnable
+{
+  /**
+   * Where the settings come from.
+   */
+  public interface Source
+  {
+    /**
+     * Settings as of now, given the ones last written.  If nothing has changed, return those same
+     * ones, and nothing is written.
+     */
+    JSONSnapshot getSettings( JSONSnapshot previous );
+  }
+
+  // write once changes stop for this long (ms), or this long after the first one at most
+  static final long QUIET = 500;
+  static final long MAX_DELAY = 2000;
+
+  private final File file;
+  private final Source source;
+  private final long quiet, maxDelay;
+  // guards writing, separately from the pending changes so that changed() never waits on the disk
+  private final Object writing = new Object();
+  private JSONSnapshot written;
+  private boolean dirty;
+  // when the pending changes started and last happened (System.nanoTime())
+  private long tFirst, tLast;
+
+  /**
+   * @param current  settings as of now, i.e. as they were just loaded from the file
+   */
+  public SettingsWriter( File file, Source source, JSONSnapshot current )
+  {
+    this( file, source, current, QUIET, MAX_DELAY );
+  }
+  SettingsWriter( File file, Source source, JSONSnapshot current, long quiet, long maxDelay )
+  {
+    this.file = file;
+    this.source = source;
+    this.written = current;
+    this.quiet = quiet;
+    this.maxDelay = maxDelay;
+  }
+  /**
+   * Start writing in the background, and write any last changes when the program exits.
+   */
+  public void start()
+  {
+    Thread thread = new Thread( this, "settings writer" );
+    thread.setDaemon( true );
+    thread.start();
+    Runtime.getRuntime().addShutdownHook( new Thread( "settings flush" )
+    {
+      @Override
+      public void run()
+      {
+        flush();
+      }
+    });
+  }
+  /**
+   * The settings have changed.  Cheap enough to call on every change.
+   */
+  public synchronized void changed()
+  {
+    tLast = System.nanoTime();
+    if (! dirty)
+    {
+      dirty = true;
+      tFirst = tLast;
+      notifyAll();
+    }
+  }
+  @Override
+  public void run()
+  {
+    try
+    {
+      for (;;)
+      {
+        awaitDue();
+        write();
+      }
+    }
+    catch( InterruptedException x )
+    {
+    }
+  }
+  /**
+   * Wait until there are changes and it is time to write them.
+   */
+  private synchronized void awaitDue() throws InterruptedException
+  {
+    for (;;)
+    {
+      if (! dirty)
+      {
+        wait();
+        continue;
+      }
+      long now = System.nanoTime();
+      long due = Math.min( tLast + quiet * 1000000, tFirst + maxDelay * 1000000 );
+      if (now - due >= 0)
+      {
+        dirty = false;
+        return;
+      }
+      long ms = (due - now) / 1000000;
+      wait( Math.max( 1, ms ) );
+    }
+  }
+  /**
+   * Write any changes now.
+   */
+  public void flush()
+  {
+    synchronized( this )
+    {
+      dirty = false;
+    }
+    write();
+  }
+  private void write()
+  {
+    synchronized( writing )
+    {
+      JSONSnapshot settings = source.getSettings( written );
+      if (settings == written)
+        return;
+      try
+      {
+        replace( file, settings.toString() );
+        written = settings;
+      }
+      catch( IOException x )
+      {
+        x.printStackTrace( System.err );
+      }
+    }
+  }
+
+  /**
+   * Replace a file's contents so that, even if interrupted, it holds either all of the old text
+   * or all of the new.
+   */
+  static void replace( File file, String text ) throws IOException
+  {
+    replace( file, text.getBytes( JSONStream.UTF8 ) );
+  }
+  static void replace( File file, byte[] content ) throws IOException
+  {
+    File dir = file.getAbsoluteFile().getParentFile();
+    File temp = File.createTempFile( file.getName(), ".tmp", dir );
+    try
+    {
+      FileOutputStream out = new FileOutputStream( temp );
+      try
+      {
+        out.write( content );
+        out.getFD().sync();
+      }
+      finally
+      {
+        out.close();
+      }
+      try
+      {
+        Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+      }
+      catch( AtomicMoveNotSupportedException x )
+      {
+        Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+      }
+    }
+    finally
+    {
+      // only still there if something went wrong
+      temp.delete();
+    }
+  }
+}
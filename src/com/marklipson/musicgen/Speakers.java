@@ -1,7 +1,5 @@
 package com.marklipson.musicgen;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 
 import javax.sound.sampled.AudioFormat;
@@ -11,6 +9,8 @@ public class Speakers implements WaveSource.AudioTarget
 {
   AudioFormat format;
   SourceDataLine line;
+  // converted samples, reused from one block to the next
+  private byte[] raw = new byte[ 0 ];
   Speakers( double sampleRate ) throws Exception
   {
     format = new AudioFormat( (float)sampleRate, 16, 2, true, true );
@@ -30,17 +30,20 @@ public class Speakers implements WaveSource.AudioTarget
   }
   public void play( float[] valuesL, float valuesR[] ) throws IOException
   {
-    ByteArrayOutputStream buf = new ByteArrayOutputStream();
-    DataOutputStream bufOut = new DataOutputStream( buf );
-    for (int nv=0; nv < valuesL.length; nv++)
+    // 16 bit big-endian samples, left then right
+    int nBytes = valuesL.length * 4;
+    if (raw.length < nBytes)
+      raw = new byte[ nBytes ];
+    for (int nv=0, at=0; nv < valuesL.length; nv++)
     {
       int vL = WavWriter.levelToInt( valuesL[ nv ] );
       int vR = WavWriter.levelToInt( valuesR[ nv ] );
-      bufOut.writeShort( vL );
-      bufOut.writeShort( vR );
+      raw[at++] = (byte)(vL >> 8);
+      raw[at++] = (byte)vL;
+      raw[at++] = (byte)(vR >> 8);
+      raw[at++] = (byte)vR;
     }
-    byte[] raw = buf.toByteArray();
-    line.write( raw, 0, raw.length );
+    line.write( raw, 0, nBytes );
   }
   public void close()
   {
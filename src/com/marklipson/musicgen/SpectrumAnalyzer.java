@@ -0,0 +1,333 @@
+package com.marklipson.musicgen;
+
+import org.xiph.libvorbis.drft_lookup;
+
+/**
+ * Analyzes the rendered signal: its spectrum, the strongest tone, the beat between the tones and
+ * the phase difference between the channels.
+ *
+ * The render thread hands each block over with {@link #offer(float[], float[])}, which only copies
+ * it into a fixed ring of buffers.  The analysis runs on its own low-priority thread, and if it
+ * falls behind, blocks are dropped rather than making the render thread wait.  Results are
+ * published as immutable {@link Snapshot}s, so readers never need a lock.
+ */
+public class SpectrumAnalyzer implements Runnable
+{
+  /**
+   * Samples per spectrum.  A new spectrum is computed every half of this.
+   */
+  static final int SIZE = 4096;
+  /**
+   * Number of log-spaced bands in a published spectrum, from LOW_HZ to HIGH_HZ.
+   */
+  static final int BANDS = 96;
+  static final double LOW_HZ = 20, HIGH_HZ = 16000;
+  /**
+   * The beat shows up in the loudness envelope, which is sampled this many times a second...
+   */
+  static final int ENV_RATE = 100;
+  /**
+   * ...and analyzed over this many envelope samples.
+   */
+  static final int ENV_SIZE = 512;
+  /**
+   * Range searched for the beat.
+   */
+  static final double BEAT_LOW_HZ = 0.3, BEAT_HIGH_HZ = 40;
+  /**
+   * Blocks that can be waiting for analysis.
+   */
+  static final int RING = 8;
+
+  /**
+   * Results of one analysis.
+   */
+  public static class Snapshot
+  {
+    /**
+     * Level of each band, in dB relative to a full-scale sine.
+     */
+    public final float[] bands;
+    /**
+     * Frequency of the strongest tone.
+     */
+    public final double peakHz;
+    /**
+     * Phase of the left channel minus that of the right, at the strongest tone, in radians.
+     */
+    public final double phase;
+    /**
+     * Frequency at which the loudness rises and falls, or NaN until enough signal has been seen.
+     */
+    public final double beatHz;
+    /**
+     * Blocks skipped so far because the analysis could not keep up.
+     */
+    public final long dropped;
+
+    Snapshot( float[] bands, double peakHz, double phase, double beatHz, long dropped )
+    {
+      this.bands = bands;
+      this.peakHz = peakHz;
+      this.phase = phase;
+      this.beatHz = beatHz;
+      this.dropped = dropped;
+    }
+    public JSON toJSON()
+    {
+      JSON json = JSON.createObject();
+      json.set( "peakHz", peakHz );
+      json.set( "beatHz", beatHz );
+      json.set( "phase", phase );
+      json.set( "dropped", dropped );
+      json.set( "lowHz", LOW_HZ );
+      json.set( "highHz", HIGH_HZ );
+      json.set( "bands", bands );
+      return json;
+    }
+  }
+
+  private final int rate;
+  private final Thread thread;
+
+  // blocks waiting for analysis: slots are filled only by the render thread and emptied only by
+  // the analysis thread, each advancing its own counter once it is done with a slot
+  private final float[][] ringL = new float[ RING ][];
+  private final float[][] ringR = new float[ RING ][];
+  private final int[] ringLength = new int[ RING ];
+  private volatile long head, tail;
+  private volatile long dropped;
+
+  private volatile Snapshot snapshot;
+
+  // most recent SIZE samples, and how many have come in since the last spectrum
+  private final float[] histL = new float[ SIZE ], histR = new float[ SIZE ];
+  private int histPos, sinceFrame;
+  private final float[] window = new float[ SIZE ];
+  private final float[] frameL = new float[ SIZE ], frameR = new float[ SIZE ];
+  private final drft_lookup fft = new drft_lookup();
+
+  // loudness envelope: low-passed power, averaged over envStep samples at a time
+  private final int envStep;
+  private final double lowPass;
+  private double lp1, lp2, envSum;
+  private int envCount;
+  private final float[] envHist = new float[ ENV_SIZE ];
+  private int envPos, envFilled;
+  private final float[] envWindow = new float[ ENV_SIZE ];
+  private final float[] envFrame = new float[ ENV_SIZE ];
+  private final drft_lookup envFft = new drft_lookup();
+
+  public SpectrumAnalyzer( int rate )
+  {
+    this.rate = rate;
+    envStep = rate / ENV_RATE;
+    // two one-pole stages at half the envelope rate keep the tones themselves out of the envelope
+    lowPass = 1 - Math.exp( -Math.PI * ENV_RATE / rate );
+    hann( window );
+    hann( envWindow );
+    fft.drft_init( SIZE );
+    envFft.drft_init( ENV_SIZE );
+    thread = new Thread( this, "spectrum" );
+    thread.setPriority( Thread.MIN_PRIORITY );
+  }
+  private static void hann( float[] w )
+  {
+    for (int n=0; n < w.length; n++)
+      w[n] = (float)(0.5 - 0.5 * Math.cos( 2 * Math.PI * n / w.length ));
+  }
+  public void start()
+  {
+    thread.start();
+  }
+  public void stop()
+  {
+    thread.interrupt();
+  }
+  /**
+   * Latest results, or null if there are none yet.
+   */
+  public Snapshot getSnapshot()
+  {
+    return snapshot;
+  }
+
+  /**
+   * Queue a block of rendered signal for analysis.  Called from the render thread; this never
+   * blocks, and drops the block if the analysis is behind.
+   */
+  public void offer( float[] L, float[] R )
+  {
+    long h = head;
+    if (h - tail >= RING)
+    {
+      dropped ++;
+      return;
+    }
+    int slot = (int)(h % RING);
+    if (ringL[slot] == null  ||  ringL[slot].length < L.length)
+    {
+      ringL[slot] = new float[ L.length ];
+      ringR[slot] = new float[ L.length ];
+    }
+    System.arraycopy( L, 0, ringL[slot], 0, L.length );
+    System.arraycopy( R, 0, ringR[slot], 0, L.length );
+    ringLength[slot] = L.length;
+    head = h + 1;
+  }
+
+  @Override
+  public void run()
+  {
+    try
+    {
+      for (;;)
+      {
+        long t = tail;
+        if (t == head)
+        {
+          Thread.sleep( 20 );
+          continue;
+        }
+        int slot = (int)(t % RING);
+        consume( ringL[slot], ringR[slot], ringLength[slot] );
+        tail = t + 1;
+      }
+    }
+    catch( InterruptedException x )
+    {
+    }
+  }
+
+  private void consume( float[] L, float[] R, int length )
+  {
+    for (int n=0; n < length; n++)
+    {
+      float l = L[n], r = R[n];
+      // one bad sample would otherwise stay in the filters for good
+      if (Float.isNaN( l )  ||  Float.isInfinite( l ))
+        l = 0;
+      if (Float.isNaN( r )  ||  Float.isInfinite( r ))
+        r = 0;
+      histL[histPos] = l;
+      histR[histPos] = r;
+      histPos = (histPos + 1) % SIZE;
+      // the tones beat against each other in the mono mix
+      double m = l + r;
+      lp1 += (m * m - lp1) * lowPass;
+      lp2 += (lp1 - lp2) * lowPass;
+      envSum += lp2;
+      if (++envCount == envStep)
+      {
+        envHist[envPos] = (float)(envSum / envStep);
+        envPos = (envPos + 1) % ENV_SIZE;
+        if (envFilled < ENV_SIZE)
+          envFilled ++;
+        envSum = 0;
+        envCount = 0;
+      }
+      if (++sinceFrame == SIZE / 2)
+      {
+        sinceFrame = 0;
+        analyze();
+      }
+    }
+  }
+
+  private void analyze()
+  {
+    for (int n=0; n < SIZE; n++)
+    {
+      int at = (histPos + n) % SIZE;
+      frameL[n] = histL[at] * window[n];
+      frameR[n] = histR[at] * window[n];
+    }
+    fft.drft_forward( frameL );
+    fft.drft_forward( frameR );
+    // power of each bin, both channels together, in dB; a full-scale sine comes out at 0
+    int nBins = SIZE / 2;
+    float[] dB = new float[ nBins ];
+    double norm = 4.0 / SIZE;
+    int peak = 1;
+    for (int k=1; k < nBins; k++)
+    {
+      double p = (power( frameL, k ) + power( frameR, k )) / 2 * norm * norm;
+      dB[k] = (float)(10 * Math.log10( p + 1e-20 ));
+      if (dB[k] > dB[peak])
+        peak = k;
+    }
+    dB[0] = dB[1];
+    double binHz = (double)rate / SIZE;
+    double peakHz = (peak + interpolate( dB, peak )) * binHz;
+    double phase = Math.atan2( frameL[2*peak], frameL[2*peak-1] ) - Math.atan2( frameR[2*peak], frameR[2*peak-1] );
+    if (phase > Math.PI)
+      phase -= 2 * Math.PI;
+    else if (phase <= -Math.PI)
+      phase += 2 * Math.PI;
+    // log-spaced bands, each showing its loudest bin
+    float[] bands = new float[ BANDS ];
+    double ratio = Math.log( HIGH_HZ / LOW_HZ ) / BANDS;
+    for (int b=0; b < BANDS; b++)
+    {
+      int k0 = (int)Math.round( LOW_HZ * Math.exp( ratio * b ) / binHz );
+      int k1 = (int)Math.round( LOW_HZ * Math.exp( ratio * (b+1) ) / binHz );
+      k0 = Math.max( 1, Math.min( nBins - 1, k0 ) );
+      k1 = Math.max( k0 + 1, Math.min( nBins, k1 ) );
+      float v = dB[k0];
+      for (int k=k0+1; k < k1; k++)
+        v = Math.max( v, dB[k] );
+      bands[b] = v;
+    }
+    snapshot = new Snapshot( bands, peakHz, phase, beat(), dropped );
+  }
+
+  /**
+   * Strongest modulation of the loudness envelope within the beat range.
+   */
+  private double beat()
+  {
+    if (envFilled < ENV_SIZE)
+      return Double.NaN;
+    double mean = 0;
+    for (int n=0; n < ENV_SIZE; n++)
+      mean += envHist[n];
+    mean /= ENV_SIZE;
+    for (int n=0; n < ENV_SIZE; n++)
+      envFrame[n] = (float)(envHist[(envPos + n) % ENV_SIZE] - mean) * envWindow[n];
+    envFft.drft_forward( envFrame );
+    double binHz = (double)ENV_RATE / ENV_SIZE;
+    int k0 = Math.max( 1, (int)Math.ceil( BEAT_LOW_HZ / binHz ) );
+    int k1 = Math.min( ENV_SIZE/2 - 2, (int)Math.floor( BEAT_HIGH_HZ / binHz ) );
+    float[] dB = new float[ k1 + 2 ];
+    int peak = k0;
+    for (int k=k0-1; k <= k1+1; k++)
+    {
+      dB[k] = (float)(10 * Math.log10( power( envFrame, k ) + 1e-20 ));
+      if (k >= k0  &&  k <= k1  &&  dB[k] > dB[peak])
+        peak = k;
+    }
+    return (peak + interpolate( dB, peak )) * binHz;
+  }
+
+  /**
+   * Power in bin k of a forward FFT (0 < k < size/2).
+   */
+  private static double power( float[] f, int k )
+  {
+    double re = f[2*k-1], im = f[2*k];
+    return re * re + im * im;
+  }
+  /**
+   * Offset of a peak from its bin, by fitting a parabola through it and its neighbors.
+   */
+  private static double interpolate( float[] dB, int k )
+  {
+    if (k < 1  ||  k + 1 >= dB.length)
+      return 0;
+    double a = dB[k-1], b = dB[k], c = dB[k+1];
+    double d = a - 2 * b + c;
+    if (d >= 0)
+      return 0;
+    return 0.5 * (a - c) / d;
+  }
+}
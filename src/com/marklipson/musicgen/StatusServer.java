@@ -0,0 +1,64 @@
+package com.marklipson.musicgen;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves live status as JSON over HTTP, i.e. http://localhost:port/spectrum.  Only listens on the
+ * loopback interface.
+ */
+public class StatusServer
+{
+  /**
+   * Something that can report its status.
+   */
+  public interface Source
+  {
+    /**
+     * Current status, or null if there is nothing to report yet.
+     */
+    JSON getStatus();
+  }
+
+  private HttpServer server;
+
+  public StatusServer( int port ) throws IOException
+  {
+    server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), 0 );
+  }
+  /**
+   * Serve a source's status at a path, i.e. "/spectrum".
+   */
+  public void publish( String path, final Source source )
+  {
+    server.createContext( path, new HttpHandler()
+    {
+      @Override
+      public void handle( HttpExchange exchange ) throws IOException
+      {
+        JSON status = source.getStatus();
+        byte[] body = (status == null ? "{}" : status.toString()).getBytes( JSONStream.UTF8 );
+        exchange.getResponseHeaders().set( "Content-Type", "application/json; charset=UTF-8" );
+        exchange.getResponseHeaders().set( "Cache-Control", "no-cache" );
+        exchange.sendResponseHeaders( 200, body.length );
+        OutputStream out = exchange.getResponseBody();
+        out.write( body );
+        out.close();
+      }
+    });
+  }
+  public void start()
+  {
+    server.start();
+  }
+  public void stop()
+  {
+    server.stop( 0 );
+  }
+}
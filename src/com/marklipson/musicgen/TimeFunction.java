@@ -1,10 +1,11 @@
 package com.marklipson.musicgen;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Stack;
 
 public class TimeFunction
@@ -61,64 +62,163 @@ public class TimeFunction
     }
   }
   /**
-   * Faster map.
+   * Variable values.  Each name maps to a slot by its first two letters, ignoring case, and nodes
+   * look their slot up once when they are built, so evaluating never hashes or boxes anything.
    */
-  public static class MiniMap<TYPE>
+  public static class EvalContext
   {
-    Object[] targets = new Object[26*26];
-    int hash( String str )
+    static final int SLOTS = 26*26;
+    private double t;
+    private double[] values;
+    private boolean[] defined;
+    // how sin, cos and log are worked out
+    MathKernel math = MathKernel.EXACT;
+    public EvalContext( double t )
+    {
+      this( t, SLOTS );
+    }
+    /**
+     * @param slots  room for named variables, plus any hidden ones after them
+     */
+    EvalContext( double t, int slots )
+    {
+      this.t = t;
+      this.values = new double[ slots ];
+      this.defined = new boolean[ slots ];
+    }
+    static int slot( String name )
     {
       int h = 0;
-      char c0 = str.charAt( 0 );
+      char c0 = name.charAt( 0 );
       if (c0 >= 'A'  &&  c0 <= 'Z')
         h += (c0-'A');
       else
         h += (c0-'a');
-      if (str.length() > 1)
+      if (name.length() > 1)
       {
-        char c1 = str.charAt( 1 );
+        char c1 = name.charAt( 1 );
         if (c1 >= 'A'  &&  c1 <= 'Z')
           h = h*26 + (c1-'A');
         else
           h = h*26 + (c1-'a');
       }
-      return h;
+      // names with characters other than letters still need to land somewhere
+      return Math.floorMod( h, SLOTS );
+    }
+    public double getTime()
+    {
+      return t;
+    }
+    public Double getVar( String name )
+    {
+      int slot = slot( name );
+      return defined[slot] ? values[slot] : null;
+    }
+    public void setVar( String name, double value )
+    {
+      set( slot( name ), value );
     }
-    TYPE get( String key )
+    boolean isSet( int slot )
     {
-      return (TYPE)targets[ hash(key) ];
+      return defined[slot];
     }
-    void put( String key, TYPE value )
+    double get( int slot )
     {
-      targets[ hash(key) ] = value;
+      return values[slot];
+    }
+    void set( int slot, double value )
+    {
+      values[slot] = value;
+      defined[slot] = true;
     }
   }
-  public static class EvalContext
+  /**
+   * Values an expression can take, from lo to hi, either of which can be infinite.
+   */
+  static class Range
   {
-    private double t;
-    private MiniMap<Double> vars = new MiniMap<Double>();
-    public EvalContext( double t )
+    static final Range ANY = new Range( Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY );
+    static final Range SIGNAL = new Range( -1, 1 );
+    final double lo, hi;
+    Range( double lo, double hi )
     {
-      this.t = t;
+      // NaN comes from sums of opposite infinities and the like, which could be anything
+      this.lo = Double.isNaN( lo ) ? Double.NEGATIVE_INFINITY : lo;
+      this.hi = Double.isNaN( hi ) ? Double.POSITIVE_INFINITY : hi;
     }
-    public double getTime()
+    static Range of( double a, double b, double c, double d )
     {
-      return t;
+      return new Range( Math.min( Math.min( a, b ), Math.min( c, d ) ), Math.max( Math.max( a, b ), Math.max( c, d ) ) );
     }
-    public Double getVar( String name )
+    boolean contains( double v )
     {
-      return vars.get( name );
+      return lo <= v  &&  v <= hi;
     }
-    public void setVar( String name, double value )
+    /**
+     * Largest magnitude of any value in the range.
+     */
+    double peak()
+    {
+      return Math.max( Math.abs( lo ), Math.abs( hi ) );
+    }
+    Range negate()
+    {
+      return new Range( -hi, -lo );
+    }
+    Range plus( Range r )
     {
-      vars.put( name, value );
+      return new Range( lo + r.lo, hi + r.hi );
+    }
+    Range times( Range r )
+    {
+      return of( mul( lo, r.lo ), mul( lo, r.hi ), mul( hi, r.lo ), mul( hi, r.hi ) );
+    }
+    // actual values are finite, so zero times an unbounded end is still zero
+    private static double mul( double a, double b )
+    {
+      return (a == 0  ||  b == 0) ? 0 : a*b;
+    }
+    Range dividedBy( Range r )
+    {
+      if (r.contains( 0 ))
+        return ANY;
+      return times( new Range( 1 / r.hi, 1 / r.lo ) );
+    }
+    Range pow( Range r )
+    {
+      if (r.lo == r.hi  &&  r.lo == Math.rint( r.lo ))
+      {
+        // whole power: monotonic on either side of zero, even powers fold negatives over
+        double k = r.lo;
+        if (k < 0  &&  contains( 0 ))
+          return ANY;
+        if (k % 2 == 0  &&  contains( 0 ))
+          return new Range( (k == 0) ? 1 : 0, Math.pow( peak(), k ) );
+        double a = Math.pow( lo, k ), b = Math.pow( hi, k );
+        return new Range( Math.min( a, b ), Math.max( a, b ) );
+      }
+      // any other power of a negative number is NaN
+      if (lo < 0)
+        return ANY;
+      // x^y = e^(y ln x) is monotonic in each of x and y, so the extremes are at the corners
+      return of( Math.pow( lo, r.lo ), Math.pow( lo, r.hi ), Math.pow( hi, r.lo ), Math.pow( hi, r.hi ) );
+    }
+    @Override
+    public String toString()
+    {
+      return "[" + lo + ", " + hi + "]";
     }
   }
   private static interface Node
   {
     double calculate( EvalContext t );
     Node optimize();
-    void listVars( List<String> vars );
+    /**
+     * Range of values this can take, given what is known of each variable slot so far (null for
+     * nothing, since it could have been set from outside, or left over from the last evaluation).
+     * Assignments record their ranges for what follows.
+     */
+    Range range( Range[] vars );
   }
   /**
    * Numeric literal.
@@ -146,8 +246,9 @@ public class TimeFunction
       return String.valueOf( value );
     }
     @Override
-    public void listVars(List<String> vars)
+    public Range range( Range[] vars )
     {
+      return new Range( value, value );
     }
   }
   /**
@@ -156,17 +257,23 @@ public class TimeFunction
   private static class Assign implements Node
   {
     private String varName;
+    private int slot;
     private Node expr;
     public Assign( String varName, Node expr )
+    {
+      this( varName, EvalContext.slot( varName ), expr );
+    }
+    Assign( String varName, int slot, Node expr )
     {
       this.varName = varName;
+      this.slot = slot;
       this.expr = expr;
     }
     @Override
     public double calculate(EvalContext t)
     {
       double v = expr.calculate( t );
-      t.setVar( varName, v );
+      t.set( slot, v );
       return v;
     }
     @Override
@@ -181,9 +288,11 @@ public class TimeFunction
       return varName + " = " + expr;
     }
     @Override
-    public void listVars(List<String> vars)
+    public Range range( Range[] vars )
     {
-      expr.listVars( vars );
+      Range r = expr.range( vars );
+      vars[slot] = r;
+      return r;
     }
   }
   private static final String VAR_LETTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ_";
@@ -193,17 +302,22 @@ public class TimeFunction
   private static class VarRef implements Node
   {
     private String varName;
+    private int slot;
     public VarRef( String varName )
+    {
+      this( varName, EvalContext.slot( varName ) );
+    }
+    VarRef( String varName, int slot )
     {
       this.varName = varName;
+      this.slot = slot;
     }
     @Override
     public double calculate(EvalContext t)
     {
-      Double v = t.getVar( varName );
-      if (v == null)
+      if (! t.isSet( slot ))
         return 0;
-      return v;
+      return t.get( slot );
     }
     @Override
     public Node optimize()
@@ -216,9 +330,9 @@ public class TimeFunction
       return varName;
     }
     @Override
-    public void listVars(List<String> vars)
+    public Range range( Range[] vars )
     {
-      vars.add( varName );
+      return (vars[slot] != null) ? vars[slot] : Range.ANY;
     }
   }
   /**
@@ -252,6 +366,8 @@ public class TimeFunction
         return arg;
       if (arg instanceof Const  &&  op == '-')
         return new Const( - ((Const)arg).value );
+      if (arg instanceof UOp  &&  ((UOp)arg).op == '-')
+        return ((UOp)arg).arg;
       return this;
     }
     @Override
@@ -260,9 +376,10 @@ public class TimeFunction
       return op + arg.toString();
     }
     @Override
-    public void listVars(List<String> vars)
+    public Range range( Range[] vars )
     {
-      arg.listVars( vars );
+      Range r = arg.range( vars );
+      return (op == '-') ? r.negate() : r;
     }
   }
   /**
@@ -317,13 +434,85 @@ public class TimeFunction
       right = right.optimize();
       if (left instanceof Const  &&  right instanceof Const)
         return new Const( calculate(null) );
+      return simplify( constant( left ), constant( right ) );
+    }
+    private static double constant( Node node )
+    {
+      return (node instanceof Const) ? ((Const)node).value : Double.NaN;
+    }
+    /**
+     * Drop operations that do nothing, and replace expensive ones with cheaper equivalents.  Only
+     * one side is constant (NaN for the other).  Repeating an operand, as in "x*x", is free, since
+     * the repeat is shared later on.
+     */
+    private Node simplify( double l, double r )
+    {
+      switch( op )
+      {
+      case '+':
+        if (l == 0)
+          return right;
+        if (r == 0)
+          return left;
+        break;
+      case '-':
+        if (r == 0)
+          return left;
+        if (l == 0)
+          return new UOp( right, '-' ).optimize();
+        break;
+      case '*':
+        if (l == 1)
+          return right;
+        if (r == 1)
+          return left;
+        if (l == 0  ||  r == 0)
+          return new Const( 0 );
+        if (l == -1)
+          return new UOp( right, '-' ).optimize();
+        if (r == -1)
+          return new UOp( left, '-' ).optimize();
+        break;
+      case '/':
+        if (r == 1)
+          return left;
+        if (r != 0  &&  ! Double.isNaN( r ))
+          return new Op( left, '*', new Const( 1 / r ) );
+        break;
+      case '^':
+        if (r == 0)
+          return new Const( 1 );
+        if (r == 1)
+          return left;
+        if (r == 2)
+          return new Op( left, '*', left );
+        if (r == 3)
+          return new Op( new Op( left, '*', left ), '*', left );
+        if (r == 4)
+        {
+          Node square = new Op( left, '*', left );
+          return new Op( square, '*', square );
+        }
+        if (r == -1)
+          return new Op( new Const( 1 ), '/', left );
+        break;
+      }
       return this;
     }
     @Override
-    public void listVars(List<String> vars)
+    public Range range( Range[] vars )
     {
-      left.listVars( vars );
-      right.listVars( vars );
+      Range rL = left.range( vars );
+      Range rR = right.range( vars );
+      switch( op )
+      {
+      case '+': return rL.plus( rR );
+      case '-': return rL.plus( rR.negate() );
+      case '*': return rL.times( rR );
+      case '/': return rL.dividedBy( rR );
+      case '^': return rL.pow( rR );
+      }
+      return Range.ANY;
     }
   }
   /**
@@ -331,6 +520,8 @@ public class TimeFunction
    */
   private static class Fn implements Node
   {
+    // constants are always folded exactly, whatever the function is later evaluated with
+    private static final EvalContext FOLDING = new EvalContext( 0, 0 );
     protected Node arg;
     private char fn;
     public Fn( Node arg, String fn ) throws Exception
@@ -368,9 +559,9 @@ public class TimeFunction
       double vArg = arg.calculate( t );
       switch( fn )
       {
-      case 's': return (float)Math.sin( vArg );
-      case 'c': return (float)Math.cos( vArg );
-      case 'l': return (float)Math.log( vArg );
+      case 's': return (float)t.math.sin( vArg );
+      case 'c': return (float)t.math.cos( vArg );
+      case 'l': return (float)t.math.log( vArg );
       case 'a': return (float)Math.abs( vArg );
       }
       return 0;
@@ -380,13 +571,21 @@ public class TimeFunction
     {
       arg = arg.optimize();
       if (arg instanceof Const)
-        return new Const( calculate( null ) );
+        return new Const( calculate( FOLDING ) );
       return this;
     }
     @Override
-    public void listVars(List<String> vars)
+    public Range range( Range[] vars )
     {
-      arg.listVars( vars );
+      Range r = arg.range( vars );
+      switch( fn )
+      {
+      case 's': return Range.SIGNAL;
+      case 'c': return Range.SIGNAL;
+      case 'l': return (r.lo > 0) ? new Range( Math.log( r.lo ), Math.log( r.hi ) ) : Range.ANY;
+      case 'a': return new Range( r.contains( 0 ) ? 0 : Math.min( Math.abs( r.lo ), Math.abs( r.hi ) ), r.peak() );
+      }
+      return Range.ANY;
     }
   }
   private static class Statements implements Node
@@ -396,8 +595,9 @@ public class TimeFunction
     public double calculate(EvalContext t)
     {
       double v = 0;
-      for (Node n : nodes)
-        v = n.calculate( t );
+      // indexed, so as not to allocate iterators
+      for (int n=0; n < nodes.size(); n++)
+        v = nodes.get( n ).calculate( t );
       return v;
     }
     @Override
@@ -421,78 +621,391 @@ public class TimeFunction
       return out.toString();
     }
     @Override
-    public void listVars(List<String> vars)
+    public Range range( Range[] vars )
     {
+      Range r = new Range( 0, 0 );
       for (Node n : nodes)
-        n.listVars( vars );
+        r = n.range( vars );
+      return r;
     }
   }
-  
+
+  /**
+   * Rewrites a function so that each repeated subexpression is worked out once per evaluation, and
+   * those that depend only on held variables (ones that change now and then rather than every
+   * sample) are worked out only when one of those changes.  Either way the value goes in a hidden
+   * slot after the named ones.
+   *
+   * A subexpression's key spells out what it computes, with each variable tagged by the number of
+   * times it has been assigned before that point, so "x*2" before and after "x = t" differ.  Since
+   * nothing is conditional, the first place a key comes up in evaluation order always runs before
+   * the others.
+   */
+  private static class Sharing
+  {
+    private static class Info
+    {
+      final String key;
+      // held variables it depends on, as bits
+      final int held;
+      // whether it depends on anything else, i.e. t
+      final boolean varies;
+      Info( String key, int held, boolean varies )
+      {
+        this.key = key;
+        this.held = held;
+        this.varies = varies;
+      }
+    }
+    // bit for each held variable's slot, 0 for the rest
+    final int[] heldBits = new int[ EvalContext.SLOTS ];
+    // assignments to hidden slots to run when held variables change, and which ones they depend on
+    final List<Node> perChange = new ArrayList<Node>();
+    final List<Integer> dependsOn = new ArrayList<Integer>();
+    int slots = EvalContext.SLOTS;
+    private final int[] versions = new int[ EvalContext.SLOTS ];
+    private final Map<Node,Info> infos = new IdentityHashMap<Node,Info>();
+    private final Map<String,Integer> uses = new HashMap<String,Integer>();
+    private final Map<String,Integer> shared = new HashMap<String,Integer>();
+
+    /**
+     * @param held  names of held variables; any the function assigns to are not held after all
+     */
+    Sharing( Node root, String[] held )
+    {
+      boolean[] assigned = new boolean[ EvalContext.SLOTS ];
+      List<Node> statements = (root instanceof Statements) ? ((Statements)root).nodes : Collections.singletonList( root );
+      for (Node n : statements)
+        if (n instanceof Assign)
+          assigned[((Assign)n).slot] = true;
+      for (int n=0; n < held.length  &&  n < 31; n++)
+      {
+        int slot = EvalContext.slot( held[n] );
+        if (! assigned[slot])
+          heldBits[slot] |= 1 << n;
+      }
+    }
+    Node rewrite( Node root )
+    {
+      scan( root );
+      count( root );
+      return share( root );
+    }
+    private static boolean isExpression( Node node )
+    {
+      return node instanceof Op  ||  node instanceof UOp  ||  node instanceof Fn;
+    }
+    /**
+     * Work out keys and dependencies, in evaluation order.
+     */
+    private Info scan( Node node )
+    {
+      Info info;
+      if (node instanceof Const)
+        info = new Info( String.valueOf( ((Const)node).value ), 0, false );
+      else if (node instanceof VarRef)
+      {
+        int slot = ((VarRef)node).slot;
+        int held = (slot < EvalContext.SLOTS) ? heldBits[slot] : 0;
+        info = new Info( "v" + slot + "#" + versions[slot], held, held == 0 );
+      }
+      else if (node instanceof UOp)
+      {
+        Info arg = scan( ((UOp)node).arg );
+        info = new Info( ((UOp)node).op + arg.key, arg.held, arg.varies );
+      }
+      else if (node instanceof Fn)
+      {
+        Info arg = scan( ((Fn)node).arg );
+        info = new Info( ((Fn)node).fn + "(" + arg.key + ")", arg.held, arg.varies );
+      }
+      else if (node instanceof Op)
+      {
+        Op op = (Op)node;
+        Info l = scan( op.left ), r = scan( op.right );
+        String kL = l.key, kR = r.key;
+        // "a*b" and "b*a" come out exactly the same
+        if ((op.op == '+'  ||  op.op == '*')  &&  kL.compareTo( kR ) > 0)
+        {
+          kL = r.key;
+          kR = l.key;
+        }
+        info = new Info( "(" + kL + op.op + kR + ")", l.held | r.held, l.varies  ||  r.varies );
+      }
+      else if (node instanceof Assign)
+      {
+        Assign assign = (Assign)node;
+        Info expr = scan( assign.expr );
+        versions[assign.slot] ++;
+        info = new Info( assign.varName + "=" + expr.key, expr.held, true );
+      }
+      else
+      {
+        for (Node n : ((Statements)node).nodes)
+          scan( n );
+        info = new Info( "", 0, true );
+      }
+      infos.put( node, info );
+      return info;
+    }
+    /**
+     * Count the places each varying subexpression is needed, leaving out those inside a repeat,
+     * since the repeat is not worked out again.
+     */
+    private void count( Node node )
+    {
+      Info info = infos.get( node );
+      if (isExpression( node ))
+      {
+        // moved out whole
+        if (! info.varies)
+          return;
+        Integer n = uses.get( info.key );
+        uses.put( info.key, (n == null) ? 1 : n + 1 );
+        if (n != null)
+          return;
+      }
+      if (node instanceof UOp)
+        count( ((UOp)node).arg );
+      else if (node instanceof Fn)
+        count( ((Fn)node).arg );
+      else if (node instanceof Op)
+      {
+        count( ((Op)node).left );
+        count( ((Op)node).right );
+      }
+      else if (node instanceof Assign)
+        count( ((Assign)node).expr );
+      else if (node instanceof Statements)
+        for (Node n : ((Statements)node).nodes)
+          count( n );
+    }
+    /**
+     * Replace repeats and held subexpressions with hidden variables.
+     */
+    private Node share( Node node )
+    {
+      Info info = infos.get( node );
+      if (isExpression( node ))
+      {
+        Integer slot = shared.get( info.key );
+        if (slot != null)
+          return new VarRef( hidden( slot ), slot );
+        if (! info.varies)
+        {
+          slot = slots ++;
+          shared.put( info.key, slot );
+          perChange.add( new Assign( hidden( slot ), slot, node ) );
+          dependsOn.add( info.held );
+          return new VarRef( hidden( slot ), slot );
+        }
+        if (uses.get( info.key ) > 1)
+        {
+          slot = slots ++;
+          shared.put( info.key, slot );
+          shareWithin( node );
+          return new Assign( hidden( slot ), slot, node );
+        }
+      }
+      shareWithin( node );
+      return node;
+    }
+    private void shareWithin( Node node )
+    {
+      if (node instanceof UOp)
+        ((UOp)node).arg = share( ((UOp)node).arg );
+      else if (node instanceof Fn)
+        ((Fn)node).arg = share( ((Fn)node).arg );
+      else if (node instanceof Op)
+      {
+        ((Op)node).left = share( ((Op)node).left );
+        ((Op)node).right = share( ((Op)node).right );
+      }
+      else if (node instanceof Assign)
+        ((Assign)node).expr = share( ((Assign)node).expr );
+      else if (node instanceof Statements)
+      {
+        List<Node> nodes = ((Statements)node).nodes;
+        for (int n=0; n < nodes.size(); n++)
+          nodes.set( n, share( nodes.get( n ) ) );
+      }
+    }
+    private static String hidden( int slot )
+    {
+      return "$" + (slot - EvalContext.SLOTS);
+    }
+  }
+
   /**
    * The result of compilation is one of these.  You can calculate function values at a given time,
    * and those values can take additional predefined values.
    */
   public static class CompiledFunction
   {
-    private Node expr;
+    private static final int T = EvalContext.slot( "t" );
+    private static final int LEFT = EvalContext.slot( "left" );
+    private static final int RIGHT = EvalContext.slot( "right" );
+    private final Node expr;
+    // values that only change with held variables, which they depend on (as bits)
+    private final Node[] perChange;
+    private final int[] dependsOn;
+    private final int[] heldBits;
+    private final int slots;
     private EvalContext context;
+    // held variables changed since perChange last ran
+    private int changed = -1;
     private double scale = 1;
+    // when the peak cannot be worked out ahead of time, the largest value seen so far, which the
+    // scale follows
+    private boolean tracking;
+    private double peak;
     
-    public CompiledFunction( Node expr )
-    {
-      this.expr = expr;
-      this.context = new EvalContext( 0 );
+    CompiledFunction( Node expr, String[] held )
+    {
+      Sharing sharing = new Sharing( expr, held );
+      this.expr = sharing.rewrite( expr );
+      this.perChange = sharing.perChange.toArray( new Node[0] );
+      this.dependsOn = new int[ perChange.length ];
+      for (int n=0; n < dependsOn.length; n++)
+        dependsOn[n] = sharing.dependsOn.get( n );
+      this.heldBits = sharing.heldBits;
+      this.slots = sharing.slots;
+      this.context = new EvalContext( 0, slots );
+    }
+    private CompiledFunction( CompiledFunction f )
+    {
+      this.expr = f.expr;
+      this.perChange = f.perChange;
+      this.dependsOn = f.dependsOn;
+      this.heldBits = f.heldBits;
+      this.slots = f.slots;
+      this.context = new EvalContext( 0, slots );
+    }
+    /**
+     * Another instance of the same function, with the same scale but its own variables, so the
+     * two can be evaluated independently.
+     */
+    public CompiledFunction copy()
+    {
+      CompiledFunction c = new CompiledFunction( this );
+      c.context.math = context.math;
+      c.scale = scale;
+      c.tracking = tracking;
+      c.peak = peak;
+      return c;
     }
     public void setVar( String name, double value )
     {
-      context.setVar( name, value );
+      int slot = EvalContext.slot( name );
+      if (heldBits[slot] != 0  &&  ! (context.isSet( slot )  &&  context.get( slot ) == value))
+        changed |= heldBits[slot];
+      context.set( slot, value );
+    }
+    /**
+     * Work out sin, cos and log with this.
+     */
+    public void setMathKernel( MathKernel math )
+    {
+      context.math = math;
     }
     public void setScale(double scale)
     {
       this.scale = scale;
-    }
+      this.tracking = false;
+    }
+    /**
+     * Largest magnitude either channel can reach, whatever the variables are set to, or infinity if
+     * there is no telling (i.e. a log, or dividing by something that can be zero).  This is a safe
+     * bound rather than an exact one: "sin(t)*sin(t)" never goes below zero, but is bounded by 1.
+     */
+    public double getPeakBound()
+    {
+      Range[] vars = new Range[ slots ];
+      for (Node n : perChange)
+        n.range( vars );
+      Range v = expr.range( vars );
+      Range rL = (vars[LEFT] != null) ? vars[LEFT] : v;
+      Range rR = (vars[RIGHT] != null) ? vars[RIGHT] : v;
+      return Math.max( rL.peak(), rR.peak() );
+    }
+    /**
+     * Scale the function so it stays within -1 to 1.  If its peak cannot be worked out, the scale
+     * follows the largest value it has produced so far instead.
+     */
     public void autoSetScale()
     {
-      List<String> vars = new ArrayList<String>();
-      expr.listVars( vars );
-      Random rnd = new Random();
-      double max = 0;
-      scale = 1;
-      for (int n=0; n < 1000; n++)
-      {
-        for (String var : vars)
-          setVar( var, rnd.nextDouble() * 100 );
-        double lr[] = evaluateStereo( rnd.nextDouble() * 100 );
-        if (Math.abs(lr[0]) > max)
-          max = Math.abs(lr[0]);
-        if (Math.abs(lr[1]) > max)
-          max = Math.abs(lr[1]);
-      }
-      scale = 1 / (max * 1.2);
+      double bound = getPeakBound();
+      tracking = Double.isInfinite( bound );
+      peak = 0;
+      scale = (bound > 0  &&  ! tracking) ? 1 / bound : 1;
+    }
+    /**
+     * Whether the scale is following the function's output, for lack of a bound.
+     */
+    public boolean isTracking()
+    {
+      return tracking;
     }
     public double evaluateMono( double t )
     {
-      context.setVar( "t", t );
+      context.set( T, t );
+      update();
       return expr.calculate( context );
     }
     public double[] evaluateStereo( double t )
     {
-      context.setVar( "t", t );
+      double lr[] = new double[ 2 ];
+      evaluateStereo( t, lr );
+      return lr;
+    }
+    /**
+     * Evaluate into lr[0] (left) and lr[1] (right), without allocating anything.
+     */
+    public void evaluateStereo( double t, double[] lr )
+    {
+      context.set( T, t );
+      update();
       double v = expr.calculate( context );
-      Double vL = context.getVar( "left" );
-      Double vR = context.getVar( "right" );
-      if (vL == null)
-        vL = v;
-      if (vR == null)
-        vR = v;
-      return new double[] { vL*scale, vR*scale };
+      double vL = context.isSet( LEFT ) ? context.get( LEFT ) : v;
+      double vR = context.isSet( RIGHT ) ? context.get( RIGHT ) : v;
+      // infinities and NaNs (i.e. log(0)) would stick in the filters downstream, so they go silent
+      if (! (Math.abs( vL ) <= Double.MAX_VALUE))
+        vL = 0;
+      if (! (Math.abs( vR ) <= Double.MAX_VALUE))
+        vR = 0;
+      if (tracking)
+      {
+        double p = Math.max( Math.abs( vL ), Math.abs( vR ) );
+        if (p > peak)
+        {
+          peak = p;
+          scale = 1 / p;
+        }
+      }
+      lr[0] = vL*scale;
+      lr[1] = vR*scale;
+    }
+    /**
+     * Work out again whatever depends on held variables that have changed.
+     */
+    private void update()
+    {
+      if (changed == 0)
+        return;
+      for (int n=0; n < perChange.length; n++)
+        if ((dependsOn[n] & changed) != 0)
+          perChange[n].calculate( context );
+      changed = 0;
     }
   }
   
   /**
    * Compile an expression into a usable function object.
+   *
+   * @param held  variables that are set for every evaluation but seldom change, so whatever
+   *              depends only on them is worked out again only when they do
    */
-  static public CompiledFunction compile( String expr ) throws Exception
+  static public CompiledFunction compile( String expr, String... held ) throws Exception
   {
     Parser p = new Parser( expr );
     Statements ss = new Statements();
@@ -508,7 +1021,7 @@ public class TimeFunction
       throw new Exception( "error" );
     if (ss.nodes.size() == 0)
       return null;
-    return new CompiledFunction( ss.optimize() );
+    return new CompiledFunction( ss.optimize(), held );
   }
   
   static private Node parseValue( Parser p ) throws Exception
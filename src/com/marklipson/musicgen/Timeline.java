@@ -0,0 +1,121 @@
+package com.marklipson.musicgen;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * Recent history of a fixed set of values, indexed by sample.
+ *
+ * The signal is generated ahead of what is being heard, so anything that follows the sound (the
+ * pulse light, analysis) needs values as they were when the part now playing was generated.  The
+ * render thread records a row of values per block with {@link #record(long, double[])}; any other
+ * thread can look a value up at any sample position with {@link #valueAt(int, double)}, which
+ * interpolates between rows.  Only the last {@link #getCapacity()} rows are kept, and the
+ * oldest few of those are not used for lookups.
+ *
+ * There is only ever one writer, and readers take no lock: a row is published by advancing a
+ * volatile count, and a reader that finds its rows were overwritten while it read them reads
+ * again.
+ */
+public class Timeline
+{
+  /**
+   * Rows that can be written while a lookup is in progress without it having to start over.
+   */
+  static final int SPARE = 4;
+
+  private final int channels;
+  private final int capacity;
+  // sample position of each row, and its values, one row after another
+  private final long[] at;
+  private final double[] values;
+  // rows written so far, and the first one that is still valid
+  private volatile long rows, first;
+
+  public Timeline( int channels, int capacity )
+  {
+    if (capacity <= SPARE)
+      throw new IllegalArgumentException( "capacity must be more than " + SPARE );
+    this.channels = channels;
+    this.capacity = capacity;
+    at = new long[ capacity ];
+    values = new double[ capacity * channels ];
+  }
+  public int getChannels()
+  {
+    return channels;
+  }
+  public int getCapacity()
+  {
+    return capacity;
+  }
+  /**
+   * Add a row.  Only one thread may call this, and sample positions must increase from one call
+   * to the next, unless {@link #clear()} is called in between.
+   *
+   * @param sample  position the values belong to
+   * @param row     a value for each channel
+   */
+  public void record( long sample, double[] row )
+  {
+    long r = rows;
+    // the slot may still be read as row r - capacity; keep its new contents from becoming visible
+    // before the count that tells readers it is being replaced
+    VarHandle.storeStoreFence();
+    int slot = (int)(r % capacity);
+    at[slot] = sample;
+    System.arraycopy( row, 0, values, slot * channels, channels );
+    rows = r + 1;
+  }
+  /**
+   * Forget all rows, i.e. after a jump to another position.  Called by the writer.
+   */
+  public void clear()
+  {
+    first = rows;
+  }
+  /**
+   * Value of a channel at a sample position, interpolated between the rows on either side.
+   * Positions before the oldest row or after the newest one get the value of that row.
+   *
+   * @return the value, or NaN if nothing has been recorded
+   */
+  public double valueAt( int channel, double sample )
+  {
+    for (;;)
+    {
+      long end = rows;
+      // leave the oldest rows alone, so the writer can add a few more before this has to retry
+      long start = Math.max( first, end - capacity + SPARE );
+      if (start >= end)
+        return Double.NaN;
+      // last row at or before the position
+      long lo = start, hi = end - 1;
+      if (sample < at[(int)(lo % capacity)])
+        hi = lo;
+      else
+      {
+        while (lo < hi)
+        {
+          long mid = (lo + hi + 1) >>> 1;
+          if (at[(int)(mid % capacity)] <= sample)
+            lo = mid;
+          else
+            hi = mid - 1;
+        }
+      }
+      int s0 = (int)(lo % capacity);
+      double v = values[s0 * channels + channel];
+      if (lo + 1 < end  &&  sample > at[s0])
+      {
+        int s1 = (int)((lo + 1) % capacity);
+        double f = (sample - at[s0]) / (at[s1] - at[s0]);
+        v += (values[s1 * channels + channel] - v) * f;
+      }
+      // were any of the rows looked at replaced while reading them?  The fence keeps the reads
+      // above from being moved past the check.
+      VarHandle.acquireFence();
+      if (rows - start < capacity)
+        return v;
+    }
+  }
+}
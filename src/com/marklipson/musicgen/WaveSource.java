@@ -1,18 +1,33 @@
 package com.marklipson.musicgen;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Generates stereo tones based on a number of parameters.
  */
-public class WaveSource
+public class WaveSource implements FunctionCompiler.Target
 {
   // SETTINGS
   
   // play position since start (samples)
   private long n = 0;
+  // the same, as of the end of the last block; for threads other than the render thread
+  private volatile long nPublished = 0;
   // sampling rate, samples per second
   private int rate = 44100;
   // duration of fade-in / fade-out
   private double fade_s = 10;
+  // all smoothed values, so they can be settled when seeking
+  private List<SmoothValue> smoothed = new ArrayList<SmoothValue>();
+  // all tracked values; each smoothed or tracked value has its own channel in the timeline
+  private List<TrackValue> tracked = new ArrayList<TrackValue>();
+  private int channels;
+  // blocks of generated values, so they can be looked up as of what is being played
+  static final int TIMELINE_BLOCKS = 256;
+  private Timeline timeline;
+  private double[] timelineRow;
 
   /**
    * Base frequency.
@@ -39,8 +54,14 @@ public class WaveSource
    */
   private TimeFunction.CompiledFunction customFunction;
   private TimeFunction.CompiledFunction prevCustomFunction;
+  // a function handed over by another thread, to be swapped in at the start of the next block
+  private static final Object NO_CHANGE = new Object();
+  private static final Object NO_FUNCTION = new Object();
+  private final AtomicReference<Object> pendingFunction = new AtomicReference<Object>( NO_CHANGE );
   private SmoothValue customMix, customChange;
   public SmoothValue customLevel;
+  // custom function output, left and right, for the new and previous function
+  private double[] cLR = new double[ 2 ], cLR2 = new double[ 2 ];
 
   /**
    * Access to the current real balance phase.
@@ -56,6 +77,16 @@ public class WaveSource
   
   // the real output time depends on how much the audio target has buffered
   private AudioTarget audioTarget;
+  // where to report how long custom functions take
+  private RenderMetrics metrics;
+  // how sines and such are worked out; the render loop picks up changes at the start of a block
+  private volatile MathKernel mathKernel = MathKernel.EXACT;
+  private MathKernel math = MathKernel.EXACT;
+
+  // events that happen at a particular sample
+  private volatile Scheduler scheduler;
+  private volatile boolean rescheduled;
+  private long nextEvent = Long.MAX_VALUE;
   
   // - time values
   private double tBase = 0;
@@ -63,13 +94,15 @@ public class WaveSource
   private double tBeat = 0;
   private double tBal = 0;
   private double tFade = 0;
+  // fading out leaves 0.15 of the level after each second
+  private static final double LOG_FADE = Math.log( 0.15 );
 
   // - multiplier for sample number to get a 1Hz wave
   private double dt1;
 
   // time data
   private long tStart = System.nanoTime();
-  private long tOffset = 0;
+  private volatile long tOffset = 0;
 
   
   public WaveSource( int nHarmonics )
@@ -88,15 +121,25 @@ public class WaveSource
     customMix = new SmoothValue( 0.4, false );
     customChange = new SmoothValue( 0.1, false );
     customLevel = new SmoothValue( 0.4, false );
+    timeline = new Timeline( channels, TIMELINE_BLOCKS );
+    timelineRow = new double[ channels ];
   }
   
   /**
-   * Time for signal currently being generated.
+   * Time for signal currently being generated.  Only for the render thread; see {@link #tGenerated()}.
    */
   double tGen()
   {
     return (double)n / rate;
   }
+  /**
+   * Time for signal generated so far, as of the end of the last block.  Safe to call from any
+   * thread, i.e. to timestamp control changes, which therefore have block granularity.
+   */
+  double tGenerated()
+  {
+    return (double)nPublished / rate;
+  }
   /**
    * Time in signal currently being played.
    */
@@ -113,8 +156,22 @@ public class WaveSource
     return rate;
   }
   
+  /**
+   * Switch to another custom function, or to none.  This can be called from any thread; the
+   * render loop makes the switch between blocks, so the function and its cross-fade change
+   * together.  If this is called more than once before then, only the last one counts.
+   */
+  @Override
   public void setCustomFunction( TimeFunction.CompiledFunction function )
   {
+    pendingFunction.set( (function == null) ? NO_FUNCTION : function );
+  }
+  private void swapCustomFunction()
+  {
+    if (pendingFunction.get() == NO_CHANGE)
+      return;
+    Object next = pendingFunction.getAndSet( NO_CHANGE );
+    TimeFunction.CompiledFunction function = (next == NO_FUNCTION) ? null : (TimeFunction.CompiledFunction)next;
     prevCustomFunction = customFunction;
     customFunction = function;
     // pan gradually from old to new function
@@ -124,6 +181,43 @@ public class WaveSource
     customMix.setValue( 1 );
   }
 
+  /**
+   * Set the source of timed events, i.e. a playlist.
+   */
+  public void setScheduler( Scheduler scheduler )
+  {
+    this.scheduler = scheduler;
+    reschedule();
+  }
+  /**
+   * The scheduler should be consulted again, starting with the next block that is generated.
+   */
+  public void reschedule()
+  {
+    rescheduled = true;
+  }
+  private void runScheduler()
+  {
+    Scheduler s = scheduler;
+    double t = (s == null) ? Double.POSITIVE_INFINITY : s.due( tGen() );
+    if (t == Double.POSITIVE_INFINITY  ||  Double.isNaN( t ))
+      nextEvent = Long.MAX_VALUE;
+    else
+      nextEvent = Math.max( n + 1, (long)Math.ceil( t * rate ) );
+  }
+
+  public void setMetrics( RenderMetrics metrics )
+  {
+    this.metrics = metrics;
+  }
+  /**
+   * Trade precision for speed in the oscillators and custom functions.  Takes effect at the start
+   * of the next block.
+   */
+  public void setMathKernel( MathKernel math )
+  {
+    this.mathKernel = math;
+  }
   public void setAudioTarget( AudioTarget audioTarget )
   {
     this.audioTarget = audioTarget;
@@ -139,7 +233,7 @@ public class WaveSource
   public void fade( boolean s )
   {
     if (s)
-      tFade = tGen();
+      tFade = tGenerated();
     else
       tFade = 0;
   }
@@ -148,11 +242,62 @@ public class WaveSource
     return tFade > 0;
   }
   
+  /**
+   * Jump to a play position without generating everything that comes before it.  Smoothed values
+   * are settled on their targets, and the phases are set to what they would be had those values
+   * been in effect since the start, so it costs the same no matter how far in the position is.
+   */
+  public void seek( double seconds )
+  {
+    n = Math.round( seconds * rate );
+    nPublished = n;
+    for (SmoothValue v : smoothed)
+      v.settle();
+    double w = n * dt1;
+    tBase = w;
+    double fL = vA.getValue();
+    tL = fL * w;
+    double dBeat = dt1 / vBeatCycle.getValue();
+    tBeat = n * dBeat;
+    // secondary frequency is modulated by sin(tBeat), which sums in closed form
+    double lowBeatHz = vBlo.getValue();
+    double highBeatHz = vBhi.getValue();
+    double midBeatHz = (lowBeatHz + highBeatHz) / 2;
+    double rBeat = highBeatHz - midBeatHz;
+    tR = (fL + midBeatHz) * w + rBeat * dt1 * sumOfSines( n, dBeat );
+    tBal = n * dt1 / vBalCycle.getValue();
+    if (tFade > 0)
+      tFade = tGen();
+    timeline.clear();
+    reschedule();
+  }
+  /**
+   * sin(d) + sin(2d) + ... + sin(n*d)
+   */
+  static double sumOfSines( long n, double d )
+  {
+    double div = Math.sin( d / 2 );
+    if (div == 0)
+      return 0;
+    return Math.sin( n * d / 2 ) * Math.sin( (n + 1) * d / 2 ) / div;
+  }
+
+  /**
+   * Generate the next nSamples samples into new arrays, left and right.
+   */
   public float[][] generate( int nSamples )
   {
-    // - output values
     float[] vL = new float[ nSamples ];
     float[] vR = new float[ nSamples ];
+    generate( vL, vR, 0, nSamples );
+    return new float[][] { vL, vR };
+  }
+  /**
+   * Generate the next nSamples samples into the caller's arrays, starting at off.  Nothing is
+   * allocated, so a player that reuses its buffers never makes garbage.
+   */
+  public void generate( float[] vL, float[] vR, int off, int nSamples )
+  {
     {
       long tReal = System.nanoTime() - tStart;
       float bufferLevel = 0;
@@ -162,14 +307,27 @@ public class WaveSource
       tOffset = tGen - tReal;
       //System.out.println( "tOffs: " + tOffset );
     }
-    for (int index=0; index < vL.length; index++, n++)
+    if (rescheduled)
     {
+      rescheduled = false;
+      nextEvent = n;
+    }
+    swapCustomFunction();
+    math = mathKernel;
+    if (customFunction != null)
+      customFunction.setMathKernel( math );
+    if (prevCustomFunction != null)
+      prevCustomFunction.setMathKernel( math );
+    for (int index=off, end=off+nSamples; index < end; index++, n++)
+    {
+      if (n >= nextEvent)
+        runScheduler();
       tBase += dt1;
       // cycle tone B between hi and lo, every (beatCycle)
       double beatCycle = vBeatCycle.getValue();
       tBeat += dt1 / beatCycle;
       track_beat.store( tBeat );
-      double slowVariation = Math.sin( tBeat );
+      double slowVariation = math.sin( tBeat );
       // base frequency
       double fL = vA.getValue();
       tL += fL * dt1;
@@ -186,7 +344,7 @@ public class WaveSource
       double balanceSwingCycle = vBalCycle.getValue();
       tBal += dt1 / balanceSwingCycle;
       track_balance.store( tBal );
-      double bL = (Math.sin( tBal ) + 1) / 2;
+      double bL = (math.sin( tBal ) + 1) / 2;
       double bR = 1 - bL;
       if (customFunction != null)
       {
@@ -194,19 +352,23 @@ public class WaveSource
         if (vCustom > 0.00001)
         {
           double vChange = customChange.getValue();
+          boolean timed = metrics != null  &&  n % RenderMetrics.CUSTOM_SAMPLING == 0;
+          long tEval = timed ? System.nanoTime() : 0;
           customFunction.setVar( "a", fL );
           customFunction.setVar( "b", fR );
           customFunction.setVar( "ta", tL );
           customFunction.setVar( "tb", tR );
-          double cLR[] = customFunction.evaluateStereo( tBase );
+          customFunction.evaluateStereo( tBase, cLR );
           if (vChange > 0.0001  &&  prevCustomFunction != null)
           {
             // function is being changed
-            double cLR2[] = prevCustomFunction.evaluateStereo( tL );
+            prevCustomFunction.evaluateStereo( tL, cLR2 );
             double vC1 = 1 - vChange;
             cLR[0] = cLR[0] * vC1 + cLR2[0] * vChange;
             cLR[1] = cLR[1] * vC1 + cLR2[1] * vChange;
           }
+          if (timed)
+            metrics.customEvaluated( System.nanoTime() - tEval );
           double vAlt = 1 - vCustom;
           L = L * vAlt + cLR[0] * vCustom;
           R = R * vAlt + cLR[1] * vCustom;
@@ -224,13 +386,40 @@ public class WaveSource
       {
         double tNow = (double)n/rate;
         double tF = tNow - tFade;
-        fade *= Math.pow( 0.15, tF );
+        fade *= math.exp( tF * LOG_FADE );
       }
       fade *= muted.getValue();
       vL[index] *= fade;
       vR[index] *= fade;
     }
-    return new float[][] { vL, vR };
+    nPublished = n;
+    recordTimeline();
+  }
+
+  /**
+   * Note where all the values ended up at the end of a block, as of its last sample.
+   */
+  private void recordTimeline()
+  {
+    // indexed, so as not to allocate iterators
+    for (int i=0; i < smoothed.size(); i++)
+    {
+      SmoothValue v = smoothed.get( i );
+      timelineRow[v.channel] = v.vNow;
+    }
+    for (int i=0; i < tracked.size(); i++)
+    {
+      TrackValue v = tracked.get( i );
+      timelineRow[v.channel] = v.v;
+    }
+    timeline.record( n - 1, timelineRow );
+  }
+  /**
+   * Sample position currently being played.
+   */
+  double playing()
+  {
+    return tReal() * rate;
   }
 
   double waveform( double t )
@@ -242,7 +431,7 @@ public class WaveSource
       double level = vH[nh].getValue();
       if (level > 0.000001)
       {
-        double h = Math.sin( t * (nh+1) );
+        double h = math.sin( t * (nh+1) );
         vW += h * level;
         tot += level;
       }
@@ -269,21 +458,25 @@ public class WaveSource
    */
   class TrackValue
   {
-    double list[] = new double[ 500 ];
-    int index( double t )
+    final int channel;
+    // latest value, recorded in the timeline at the end of each block
+    double v;
+    TrackValue()
     {
-      long tN = (long)(t / 100);
-      return (int)(tN % list.length);
+      channel = channels ++;
+      tracked.add( this );
     }
     void store( double v )
     {
-      double t = tGen();
-      list[ index(t) ] = v;
+      this.v = v;
     }
+    /**
+     * Value as of what is being played.
+     */
     double retrieve()
     {
-      double t = tReal();
-      return list[ index(t) ];
+      double v = timeline.valueAt( channel, playing() );
+      return Double.isNaN( v ) ? 0 : v;
     }
   }
   
@@ -293,6 +486,7 @@ public class WaveSource
    */
   class SmoothValue
   {
+    final int channel;
     double vNow = Double.NaN;
     double vTarget;
     double tPrev;
@@ -307,6 +501,8 @@ public class WaveSource
       this.speed = speed;
       this.geometric = geometric;
       tPrev = tGen();
+      channel = channels ++;
+      smoothed.add( this );
     }
     double getValue()
     {
@@ -348,8 +544,38 @@ public class WaveSource
       else
         setValue( v );
     }
+    /**
+     * Value as of what is being played, or NaN if it has not been set yet.
+     */
+    double retrieve()
+    {
+      return timeline.valueAt( channel, playing() );
+    }
+    /**
+     * Jump straight to the target value, as of the current time.
+     */
+    void settle()
+    {
+      if (! Double.isNaN( vNow ))
+        vNow = vTarget;
+      tPrev = tGen();
+    }
   }
   
+  /**
+   * Source of events that have to happen at an exact point in the signal.
+   */
+  public interface Scheduler
+  {
+    /**
+     * Called from the render loop when an event is due, before the sample at time 't' is
+     * generated.  Changes made here take effect from that sample on.
+     *
+     * @return time at which to call again, or infinity if there is nothing more to do
+     */
+    double due( double t );
+  }
+
   /**
    * Information about where audio is being sent.
    */
@@ -0,0 +1,90 @@
+package com.marklipson.musicgen;
+
+import java.io.StringWriter;
+
+import org.junit.Test;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestChangeLog
+{
+  private static void assertStep( JSON steps, int n, String expected )
+  {
+    assertEquals( "step " + n, JSONSnapshot.of( JSON.parse( expected ) ), JSONSnapshot.of( steps.getComplex( n ) ) );
+  }
+
+  @Test
+  public void stepsFromChanges() throws Exception
+  {
+    ChangeLog log = new ChangeLog();
+    StringWriter text = new StringWriter();
+    JSONStream.ArrayWriter out = new JSONStream.ArrayWriter( text );
+    log.changed( 0, "a", 99 );
+    assertFalse( log.isActive() );
+    log.start( 0.0004, JSONSnapshot.of( JSON.parse( "{a:1,b:2}" ) ) );
+    assertTrue( log.isActive() );
+    // right after the start, so folded into the first step
+    log.changed( 0.05, "a", 2 );
+    log.changed( 0.08, "a", 3 );
+    // no change, so no new step even though it is well after the start
+    log.changed( 1.2337, "b", 2 );
+    log.drain( out );
+    assertEquals( "nothing finished yet", 0, out.getCount() );
+    log.changed( 1.5004, "b", 5 );
+    log.drain( out );
+    assertEquals( 1, out.getCount() );
+    log.changed( 2.0006, "a", 4 );
+    // too soon after the last one, so it replaces it
+    log.changed( 2.0506, "a", 5 );
+    log.changed( 3.3333, "b", 6 );
+    log.drain( out );
+    assertEquals( 3, out.getCount() );
+    log.stop( 7.7778, out );
+    assertFalse( log.isActive() );
+    log.changed( 8, "a", 7 );
+    log.drain( out );
+    out.close();
+
+    JSON steps = JSON.parse( text.toString() );
+    assertEquals( 4, steps.getArraySize() );
+    assertStep( steps, 0, "{a:3,b:2,duration:1.5}" );
+    assertStep( steps, 1, "{a:3,b:5,duration:0.501}" );
+    assertStep( steps, 2, "{a:5,b:5,duration:1.332}" );
+    assertStep( steps, 3, "{a:5,b:6,duration:4.445}" );
+    // each duration is between rounded ends, so they add up to the rounded span
+    long ms = 0;
+    for (int n=0; n < steps.getArraySize(); n++)
+      ms += Math.round( steps.getComplex( n ).getDouble( "duration", 0 ) * 1000 );
+    assertEquals( Math.round( 7.7778 * 1000 ) - Math.round( 0.0004 * 1000 ), ms );
+  }
+  @Test
+  public void durationsAddUp() throws Exception
+  {
+    ChangeLog log = new ChangeLog();
+    StringWriter text = new StringWriter();
+    JSONStream.ArrayWriter out = new JSONStream.ArrayWriter( text );
+    double t0 = 12.3456789;
+    log.start( t0, JSONSnapshot.of( JSON.parse( "{v:0}" ) ) );
+    // steps that are not whole milliseconds long, so rounding each length would drift
+    double t = t0;
+    for (int n=1; n <= 500; n++)
+    {
+      t += 0.1234567;
+      log.changed( t, "v", n );
+      if (n % 50 == 0)
+        log.drain( out );
+    }
+    log.stop( t + 1, out );
+    out.close();
+    JSON steps = JSON.parse( text.toString() );
+    assertEquals( 501, steps.getArraySize() );
+    long ms = 0;
+    for (int n=0; n < steps.getArraySize(); n++)
+    {
+      assertEquals( n, steps.getComplex( n ).getInt( "v", -1 ) );
+      ms += Math.round( steps.getComplex( n ).getDouble( "duration", 0 ) * 1000 );
+    }
+    assertEquals( Math.round( (t + 1) * 1000 ) - Math.round( t0 * 1000 ), ms );
+  }
+}
@@ -0,0 +1,74 @@
+package com.marklipson.musicgen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestFunctionCompiler
+{
+  private final List<TimeFunction.CompiledFunction> received = new ArrayList<TimeFunction.CompiledFunction>();
+  private final FunctionCompiler.Target target = new FunctionCompiler.Target()
+  {
+    @Override
+    public void setCustomFunction( TimeFunction.CompiledFunction function )
+    {
+      synchronized( received )
+      {
+        received.add( function );
+      }
+    }
+  };
+
+  @Test
+  public void compilesOnlyTheLastEdit() throws Exception
+  {
+    FunctionCompiler c = new FunctionCompiler( target, 50 );
+    String text = "sin(t*3)";
+    for (int n=1; n <= text.length(); n++)
+      c.edited( text.substring( 0, n ) );
+    Thread.sleep( 500 );
+    synchronized( received )
+    {
+      assertEquals( 1, received.size() );
+      double[] lr = new double[ 2 ];
+      received.get( 0 ).evaluateStereo( 0.5, lr );
+      assertTrue( "scaled to below 1", Math.abs( lr[0] ) < 1 );
+    }
+    assertEquals( 1, c.getCompiles() );
+    c.shutdown();
+  }
+  @Test
+  public void ignoresEmptyAndBadText() throws Exception
+  {
+    FunctionCompiler c = new FunctionCompiler( target, 10 );
+    assertNull( c.compile( "" ) );
+    assertNull( c.compile( "   " ) );
+    assertNull( c.compile( "sin(" ) );
+    c.edited( "" );
+    Thread.sleep( 200 );
+    synchronized( received )
+    {
+      assertEquals( "nothing passed on", 0, received.size() );
+    }
+    c.shutdown();
+  }
+  @Test
+  public void caches()
+  {
+    FunctionCompiler c = new FunctionCompiler( target, 10 );
+    TimeFunction.CompiledFunction a = c.compile( "sin( t ) * cos(t)" );
+    TimeFunction.CompiledFunction b = c.compile( "  sin( t )   * cos(t) " );
+    assertEquals( 1, c.getCompiles() );
+    assertTrue( "each caller gets its own", a != b );
+    assertEquals( a.evaluateMono( 1.5 ), b.evaluateMono( 1.5 ), 0 );
+    double[] la = new double[ 2 ], lb = new double[ 2 ];
+    a.evaluateStereo( 1.5, la );
+    b.evaluateStereo( 1.5, lb );
+    assertEquals( "same scale", la[0], lb[0], 0 );
+    c.shutdown();
+  }
+}
@@ -0,0 +1,33 @@
+package com.marklipson.musicgen;
+
+import org.junit.Test;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestHistogram
+{
+  @Test
+  public void buckets()
+  {
+    for (long v=0; v < 1000000; v = v * 5 / 4 + 1)
+    {
+      int index = Histogram.index( v );
+      assertTrue( "lowest @" + v, Histogram.lowest( index ) <= v );
+      assertTrue( "highest @" + v, Histogram.lowest( index + 1 ) > v );
+    }
+  }
+  @Test
+  public void percentiles()
+  {
+    Histogram h = new Histogram();
+    for (int v=1; v <= 10000; v++)
+      h.record( v );
+    assertEquals( 10000, h.getCount() );
+    assertEquals( 5000.5, h.getMean(), 1e-9 );
+    assertEquals( 10000, h.getMax() );
+    assertEquals( "p50", 5000, h.getPercentile( 50 ), 5000 * 0.07 );
+    assertEquals( "p99", 9900, h.getPercentile( 99 ), 9900 * 0.07 );
+    assertTrue( "p50 not under", h.getPercentile( 50 ) >= 5000 );
+    assertEquals( "p100", 10000, h.getPercentile( 100 ) );
+  }
+}
@@ -0,0 +1,105 @@
+package com.marklipson.musicgen;
+
+import org.junit.Test;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestJSON
+{
+  @Test
+  public void arrays()
+  {
+    JSON a = JSON.parse( "[1, 'two', {x:3}, null]" );
+    assertTrue( a.isArray() );
+    assertEquals( 4, a.getArraySize() );
+    assertEquals( "1", a.getString( 0 ) );
+    assertEquals( "two", a.getString( "1" ) );
+    assertEquals( 3, a.getInt( "2.x", 0 ) );
+    assertEquals( "two", a.get( "1" ) );
+    assertEquals( 10, JSON.parse( "[10,\"x\"]" ).get( "0" ) );
+    assertNull( a.get( "3" ) );
+    assertNull( a.getComplex( 4 ) );
+    assertEquals( "[1,\"two\",{\"x\":3},null]", a.toString() );
+    assertEquals( "round trip", a, JSON.parse( a.toString() ) );
+  }
+  @Test
+  public void arrayIndexes()
+  {
+    JSON a = JSON.createArray();
+    a.set( " +2.0 ", "c", false );
+    assertEquals( "gap filled", "[null,null,\"c\"]", a.toString() );
+    a.set( 0, "a" );
+    a.set( "x", "ignored" );
+    assertEquals( 3, a.getArraySize() );
+    assertEquals( 2, JSON.arrayIndex( "02" ) );
+    assertEquals( -1, JSON.arrayIndex( "2x" ) );
+    assertEquals( -1, JSON.arrayIndex( "" ) );
+    assertEquals( -1, JSON.arrayIndex( "99999999999" ) );
+  }
+  @Test
+  public void removeAndInsert()
+  {
+    JSON a = JSON.parse( "[0,1,2,3]" );
+    assertEquals( "1", a.removeArrayElement( 1 ).getSimpleValue() );
+    a.remove( "0" );
+    assertEquals( "[2,3]", a.toString() );
+    a.addArrayElement( new int[] { 4, 5 } );
+    assertEquals( "[2,3,[4,5]]", a.toString() );
+    JSON c = a.clone();
+    c.getComplex( 2 ).set( 0, 9 );
+    assertEquals( "clone is deep", "[2,3,[4,5]]", a.toString() );
+    assertEquals( "[2,3,[9,5]]", c.toString() );
+  }
+  @Test
+  public void mergeDiff()
+  {
+    JSON before = JSON.parse( "{list:[{a:1},{b:2},{c:3}],z:1}" );
+    JSON after = JSON.parse( "{list:[{a:1},{b:5}],z:1}" );
+    JSON merged = before.clone();
+    merged.merge( JSON.diff( before, after ) );
+    assertEquals( after, merged );
+  }
+  public static class Voice
+  {
+    public double freq;
+    public int harmonics;
+    public String name;
+    public float[] levels;
+    public Voice inner;
+    private boolean muted;
+    public boolean isMuted()
+    {
+      return muted;
+    }
+    public void setMuted( boolean muted )
+    {
+      this.muted = muted;
+    }
+  }
+  @Test
+  public void objectBinding() throws Exception
+  {
+    Voice v = new Voice();
+    v.freq = 110.5;
+    v.harmonics = 3;
+    v.name = "low";
+    v.levels = new float[] { 1, 0.5f };
+    v.inner = new Voice();
+    v.inner.freq = 2;
+    v.setMuted( true );
+    JSON json = JSON.objectToJSON( v, true );
+    assertEquals( 110.5, json.getDouble( "freq", 0 ), 0 );
+    assertEquals( "true", json.getString( "muted" ) );
+    assertNull( "default skipped", json.get( "inner.harmonics" ) );
+    Voice back = JSON.jsonToObject( JSON.parse( json.toString() ), Voice.class );
+    assertEquals( 110.5, back.freq, 0 );
+    assertEquals( 3, back.harmonics );
+    assertEquals( "low", back.name );
+    assertEquals( 2, back.levels.length );
+    assertEquals( 0.5, back.levels[1], 0 );
+    assertEquals( 2.0, back.inner.freq, 0 );
+    assertTrue( back.isMuted() );
+    assertEquals( "same again", json, JSON.objectToJSON( back, true ) );
+  }
+}
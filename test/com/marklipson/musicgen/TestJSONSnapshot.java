@@ -0,0 +1,64 @@
+package com.marklipson.musicgen;
+
+import org.junit.Test;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestJSONSnapshot
+{
+  @Test
+  public void roundTrip()
+  {
+    JSON json = JSON.parse( "{a:1,b:'two',list:[1,{c:true},null],o:{d:2.5}}" );
+    JSONSnapshot s = JSONSnapshot.of( json );
+    assertEquals( json.toString(), s.toString() );
+    assertEquals( json, s.toJSON() );
+    assertEquals( 2.5, s.getComplex( "o" ).getDouble( "d", 0 ), 0 );
+    assertEquals( 3, s.getComplex( "list" ).size() );
+    assertNull( s.get( "missing" ) );
+  }
+  @Test
+  public void sharesUnchanged()
+  {
+    JSONSnapshot s = JSONSnapshot.of( JSON.parse( "{a:1,o:{d:2}}" ) );
+    assertSame( "same value", s, s.with( "a", 1 ) );
+    assertSame( "not there", s, s.without( "x" ) );
+    JSONSnapshot t = s.with( "a", 3 );
+    assertSame( "untouched child", s.get( "o" ), t.get( "o" ) );
+    assertEquals( 1, ((Number)s.get( "a" )).intValue() );
+    assertEquals( 3, ((Number)t.get( "a" )).intValue() );
+  }
+  @Test
+  public void equality()
+  {
+    JSONSnapshot a = JSONSnapshot.of( JSON.parse( "{x:1,y:[1,2]}" ) );
+    JSONSnapshot b = JSONSnapshot.EMPTY_OBJECT.with( "y", JSON.parse( "[1,2]" ) ).with( "x", 1 );
+    assertEquals( "field order does not matter", a, b );
+    assertEquals( a.hashCode(), b.hashCode() );
+    assertFalse( a.equals( b.with( "x", 2 ) ) );
+    assertFalse( a.equals( a.without( "y" ) ) );
+  }
+  @Test
+  public void diffMatchesJSON()
+  {
+    String[][] cases = {
+      { "{list:[{a:1},{b:2},{c:3}],z:1}", "{list:[{a:1},{b:5}],z:1}" },
+      { "{a:1,b:{c:2}}", "{a:2,b:{c:2},d:[1]}" },
+      { "{a:1,b:2}", "{b:2}" },
+    };
+    for (String[] c : cases)
+    {
+      JSON before = JSON.parse( c[0] );
+      JSON after = JSON.parse( c[1] );
+      JSON merged = before.clone();
+      merged.merge( JSONSnapshot.diff( JSONSnapshot.of( before ), JSONSnapshot.of( after ) ) );
+      assertEquals( c[1], after, merged );
+    }
+    JSONSnapshot s = JSONSnapshot.of( JSON.parse( "{list:[{a:1}],z:1}" ) );
+    assertNull( "no changes", JSONSnapshot.diff( s, s ) );
+    assertTrue( JSONSnapshot.diff( s, s.with( "z", 2 ) ).isObject() );
+  }
+}
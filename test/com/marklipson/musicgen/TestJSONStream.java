@@ -0,0 +1,119 @@
+package com.marklipson.musicgen;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+
+public class TestJSONStream
+{
+  /**
+   * Every element, as text.
+   */
+  private static List<String> read( String text ) throws IOException
+  {
+    List<String> out = new ArrayList<String>();
+    try( JSONStream.ArrayReader r = new JSONStream.ArrayReader( new StringReader( text ) ) )
+    {
+      for (JSON e; (e = r.next()) != null;)
+        out.add( e.toString() );
+      assertNull( "stays at the end", r.next() );
+    }
+    return out;
+  }
+  private static List<String> list( String... elements )
+  {
+    List<String> out = new ArrayList<String>();
+    for (String e : elements)
+      out.add( e );
+    return out;
+  }
+
+  @Test
+  public void emptyArray() throws Exception
+  {
+    assertEquals( list(), read( "[]" ) );
+    assertEquals( list(), read( " \n[ \n ]\n" ) );
+    assertEquals( list(), read( "// nothing yet\n[ /* none */ ]" ) );
+  }
+  @Test
+  public void whitespaceAndComments() throws Exception
+  {
+    String text = "[ // first\n  {a:1} ,\t/* second, with ] and , in it */ {b:2}\n"
+        + "  /* after */ , // trailing, then a comment inside an element\n  {c:/* here */3, d:4 // and here\n }\n]";
+    assertEquals( list( "{\"a\":1}", "{\"b\":2}", "{\"c\":3,\"d\":4}" ), read( text ) );
+  }
+  @Test
+  public void nestedElements() throws Exception
+  {
+    String text = "[[1,[2,3]], {a:{b:[1,{c:']'}]}}, {s:\"x,]}\\\"\"}, []]";
+    assertEquals( list( "[1,[2,3]]", "{\"a\":{\"b\":[1,{\"c\":\"]\"}]}}", "{\"s\":\"x,]}\\\"\"}", "[]" ), read( text ) );
+  }
+  @Test
+  public void truncatedRecording() throws Exception
+  {
+    // cut off between elements: everything written so far comes back
+    assertEquals( list( "{\"a\":1}", "{\"b\":2}" ), read( "[\n{\"a\":1},\n{\"b\":2}" ) );
+    assertEquals( list( "{\"a\":1}" ), read( "[\n{\"a\":1}," ) );
+    assertEquals( list(), read( "[" ) );
+    // cut off inside an element: the ones before it are intact, and what there is of it is kept
+    assertEquals( list( "{\"a\":1}", "{\"b\":2}" ), read( "[\n{\"a\":1},\n{\"b\":2" ) );
+    assertEquals( list( "{\"a\":1}", "{\"b\":\"xy\"}" ), read( "[\n{\"a\":1},\n{\"b\":\"xy" ) );
+  }
+  @Test
+  public void readsWhatWasWritten() throws Exception
+  {
+    StringWriter text = new StringWriter();
+    List<String> expected = new ArrayList<String>();
+    try( JSONStream.ArrayWriter w = new JSONStream.ArrayWriter( text ) )
+    {
+      // enough to cross the reader's buffer many times
+      for (int n=0; n < 2000; n++)
+      {
+        JSON e = JSON.parse( "{step:" + n + ",name:'caf\u00e9 " + n + "',list:[" + n + ",{x:[]}]}" );
+        if (n % 2 == 0)
+          w.append( e );
+        else
+          w.append( JSONSnapshot.of( e ) );
+        expected.add( e.toString() );
+      }
+      assertEquals( 2000, w.getCount() );
+    }
+    assertEquals( expected, read( text.toString() ) );
+
+    StringWriter empty = new StringWriter();
+    new JSONStream.ArrayWriter( empty ).close();
+    assertEquals( list(), read( empty.toString() ) );
+  }
+  @Test
+  public void fileRoundTrip() throws Exception
+  {
+    File f = File.createTempFile( "stream", ".json" );
+    try
+    {
+      try( JSONStream.ArrayWriter w = new JSONStream.ArrayWriter( f ) )
+      {
+        w.append( JSON.parse( "{name:'\u00fcber',n:1}" ) );
+        w.append( JSON.parse( "[2]" ) );
+      }
+      try( JSONStream.ArrayReader r = new JSONStream.ArrayReader( f ) )
+      {
+        JSON first = r.next();
+        assertEquals( "\u00fcber", first.getString( "name" ) );
+        assertEquals( 1, first.getInt( "n", 0 ) );
+        assertEquals( "[2]", r.next().toString() );
+        assertNull( r.next() );
+      }
+    }
+    finally
+    {
+      f.delete();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package com.marklipson.musicgen;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestMathKernel
+{
+  private static final int SAMPLES = 200000;
+
+  /**
+   * Largest error over random arguments: absolute for sin, cos and log, relative for exp.
+   */
+  private static double[] errors( MathKernel k )
+  {
+    Random rnd = new Random( 7 );
+    double[] worst = new double[ 5 ];
+    for (int n=0; n < SAMPLES; n++)
+    {
+      double x = (rnd.nextDouble() - 0.5) * 200;
+      double phase = rnd.nextDouble() * MathKernel.MAX_PHASE * 0.999;
+      double big = (rnd.nextDouble() - 0.5) * 1400;
+      double positive = Math.exp( (rnd.nextDouble() - 0.5) * 1400 );
+      worst[0] = Math.max( worst[0], Math.abs( k.sin( x ) - Math.sin( x ) ) );
+      worst[1] = Math.max( worst[1], Math.abs( k.cos( x ) - Math.cos( x ) ) );
+      worst[2] = Math.max( worst[2], Math.max( Math.abs( k.sin( phase ) - Math.sin( phase ) ), Math.abs( k.cos( phase ) - Math.cos( phase ) ) ) );
+      worst[3] = Math.max( worst[3], Math.abs( k.exp( big ) / Math.exp( big ) - 1 ) );
+      worst[4] = Math.max( worst[4], Math.max( Math.abs( k.log( positive ) - Math.log( positive ) ), Math.abs( k.log( x*x/100 ) - Math.log( x*x/100 ) ) ) );
+    }
+    return worst;
+  }
+  private static void assertWithin( MathKernel k, double bound )
+  {
+    String[] names = { "sin", "cos", "sin/cos of large phases", "exp", "log" };
+    double[] worst = errors( k );
+    for (int n=0; n < worst.length; n++)
+      assertTrue( k + " " + names[n] + ": " + worst[n], worst[n] < bound );
+  }
+  @Test
+  public void exactIsMath()
+  {
+    assertWithin( MathKernel.EXACT, Double.MIN_VALUE );
+  }
+  @Test
+  public void fastWithinBound()
+  {
+    assertWithin( MathKernel.FAST, 1e-6 );
+  }
+  @Test
+  public void ultraFastWithinBound()
+  {
+    assertWithin( MathKernel.ULTRA_FAST, 1e-4 );
+  }
+  @Test
+  public void specialValues()
+  {
+    for (MathKernel k : new MathKernel[] { MathKernel.FAST, MathKernel.ULTRA_FAST })
+    {
+      assertEquals( 0.0, k.sin( 0 ), 0 );
+      assertEquals( 1.0, k.exp( 0 ), 0 );
+      assertEquals( 0.0, k.log( 1 ), 0 );
+      assertTrue( Double.isNaN( k.sin( Double.POSITIVE_INFINITY ) ) );
+      assertTrue( Double.isNaN( k.cos( Double.NaN ) ) );
+      assertTrue( Double.isNaN( k.log( -1 ) ) );
+      assertEquals( Double.NEGATIVE_INFINITY, k.log( 0 ) );
+      assertEquals( 0.0, k.exp( -1000 ) );
+      assertEquals( Double.POSITIVE_INFINITY, k.exp( 1000 ) );
+      // past where phases can be wrapped exactly
+      assertEquals( Math.sin( 1e12 ), k.sin( 1e12 ), 0 );
+    }
+  }
+  @Test
+  public void byName()
+  {
+    assertSame( MathKernel.FAST, MathKernel.forName( "fast" ) );
+    assertSame( MathKernel.ULTRA_FAST, MathKernel.forName( MathKernel.ULTRA_FAST.toString() ) );
+    try
+    {
+      MathKernel.forName( "slow" );
+      assertTrue( "expected an exception", false );
+    }
+    catch( IllegalArgumentException x )
+    {
+    }
+  }
+}
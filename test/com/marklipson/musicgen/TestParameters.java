@@ -0,0 +1,59 @@
+package com.marklipson.musicgen;
+
+import java.util.Properties;
+
+import org.junit.Test;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestParameters
+{
+  private WaveSource wave = new WaveSource( 2 );
+  private Parameters params = new Parameters();
+  {
+    params.add( "A: (hz)", "hz", Parameters.Scale.LOG, 0.001, 2500, 5500, 3723, wave.vA );
+    params.add( "h(1):", "%", Parameters.Scale.LINEAR, 0.001, 0, 100000, 90000, wave.vH[0] );
+  }
+
+  @Test
+  public void scales()
+  {
+    Parameters.Parameter a = params.get( "A" );
+    assertEquals( 0, a.id );
+    assertEquals( Math.exp( 3.723 ), a.getDefault(), 1e-9 );
+    for (int pos = a.minPosition; pos <= a.maxPosition; pos += 7)
+      assertEquals( pos, a.positionOf( a.valueAt( pos ) ) );
+    assertEquals( "clamped", a.maxPosition, a.positionOf( 1e6 ) );
+    assertEquals( "clamped", a.minPosition, a.positionOf( 0 ) );
+    Parameters.Parameter h = params.get( "h_1" );
+    assertEquals( 1, h.id );
+    assertEquals( 90.0, h.getDefault(), 1e-9 );
+  }
+  @Test
+  public void readAndWrite()
+  {
+    double[] v = params.read( JSON.parse( "{A:4000,other:1}" ) );
+    assertEquals( Math.exp( 4 ), v[0], 1e-9 );
+    assertTrue( "missing", Double.isNaN( v[1] ) );
+    JSON out = JSON.createObject();
+    params.write( v, out );
+    assertEquals( "{\"A\":4000}", out.toString() );
+    Properties props = new Properties();
+    props.setProperty( "h_1", "50000" );
+    props.setProperty( "A", "loud" );
+    v = params.read( props );
+    assertTrue( Double.isNaN( v[0] ) );
+    assertEquals( 50.0, v[1], 1e-9 );
+    assertEquals( "out of range", Math.exp( 5.5 ), params.read( JSON.parse( "{A:99999}" ) )[0], 1e-9 );
+  }
+  @Test
+  public void snapshots()
+  {
+    JSONSnapshot saved = params.write( params.snapshot(), JSONSnapshot.EMPTY_OBJECT );
+    assertSame( "unchanged", saved, params.write( params.snapshot(), saved ) );
+    params.set( 1, 12.5, true );
+    assertEquals( 12500, ((Number)params.write( params.snapshot(), saved ).get( "h_1" )).intValue() );
+    assertEquals( "sent to the synthesizer", 12.5, wave.vH[0].getValue(), 1e-9 );
+  }
+}
@@ -0,0 +1,144 @@
+package com.marklipson.musicgen;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.List;
+
+import org.junit.Test;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestPresetLibrary
+{
+  private Parameters params = new Parameters();
+  {
+    params.add( "A: (hz)", "hz", Parameters.Scale.LOG, 0.001, 2500, 5500, 3723, null );
+    params.add( "B-delta-lo: (hz)", "hz", Parameters.Scale.LOG, 0.001, -2500, 4000, 832, null );
+  }
+
+  private static File write( File dir, String name, String text ) throws Exception
+  {
+    File f = new File( dir, name );
+    f.getParentFile().mkdirs();
+    FileWriter w = new FileWriter( f );
+    w.write( text );
+    w.close();
+    return f;
+  }
+  private static void delete( File f )
+  {
+    File[] children = f.listFiles();
+    if (children != null)
+      for (File c : children)
+        delete( c );
+    f.delete();
+  }
+
+  @Test
+  public void summarizesAndFinds() throws Exception
+  {
+    File dir = File.createTempFile( "presets", "" );
+    dir.delete();
+    File index = new File( dir.getPath() + ".index" );
+    try
+    {
+      // B-delta-lo 1609 is about 5 hz, 2079 about 8, 2303 about 10
+      write( dir, "calm.trance", "{A:3723,B-delta-lo:1609}" );
+      File list = write( dir, "sub/evening.trance", "[{A:3723,B-delta-lo:1609,duration:600},{B-delta-lo:2079,duration:300}]" );
+      write( dir, "sub/fast.trance", "[{A:3723,B-delta-lo:2303,duration:2000}]" );
+      write( dir, "notes.txt", "not a preset" );
+      PresetLibrary lib = new PresetLibrary( dir, params, index );
+      lib.scan();
+      assertEquals( 3, lib.size() );
+      assertFalse( lib.contains( new File( dir, "notes.txt" ) ) );
+      assertTrue( lib.contains( list ) );
+
+      List<PresetLibrary.Preset> found = lib.find( new PresetLibrary.Query().range( "B-delta-lo", 4, 8.5 ).duration( 1, 1200 ) );
+      assertEquals( 1, found.size() );
+      PresetLibrary.Preset p = found.get( 0 );
+      assertEquals( list.getAbsoluteFile(), p.file );
+      assertEquals( 2, p.steps );
+      assertEquals( 900.0, p.duration, 1e-9 );
+      assertEquals( Math.exp( 1.609 ), p.getMin( params.get( "B-delta-lo" ) ), 1e-9 );
+      assertEquals( Math.exp( 2.079 ), p.getMax( params.get( "B-delta-lo" ) ), 1e-9 );
+      assertEquals( "settings and playlists", 2, lib.find( new PresetLibrary.Query().range( "B-delta-lo", 4, 8.5 ) ).size() );
+
+      // a new library picks the summaries up from the index
+      lib.saveIndex();
+      PresetLibrary again = new PresetLibrary( dir, params, index );
+      again.loadIndex();
+      assertEquals( 3, again.size() );
+      assertEquals( 1, again.find( new PresetLibrary.Query().range( "B-delta-lo", 9, 11 ) ).size() );
+
+      // and only re-reads what changed
+      new File( dir, "calm.trance" ).delete();
+      File fast = write( dir, "sub/fast.trance", "[{A:3723,B-delta-lo:1609,duration:200}]" );
+      fast.setLastModified( fast.lastModified() + 2000 );
+      again.scan();
+      assertEquals( 2, again.size() );
+      assertEquals( 0, again.find( new PresetLibrary.Query().range( "B-delta-lo", 9, 11 ) ).size() );
+      assertEquals( 2, again.find( new PresetLibrary.Query().range( "A", 41, 42 ).duration( 0, 1200 ) ).size() );
+    }
+    finally
+    {
+      delete( dir );
+      index.delete();
+    }
+  }
+  @Test
+  public void readsOnlyWhatLooksLikeSettings() throws Exception
+  {
+    File dir = File.createTempFile( "presets", "" );
+    dir.delete();
+    try
+    {
+      PresetLibrary lib = new PresetLibrary( dir, params, new File( dir, "index" ) );
+      String[][] cases = {
+        { "plain.trance", "{A:3723}", "true" },
+        { "spaced.trance", "\n\t  [{A:3723,duration:5}]", "true" },
+        { "commented.trance", "// saved by hand\n{A:3723}", "false" },
+        { "notes.txt", "not a preset {A:3723}", "false" },
+        { "empty.trance", "", "false" },
+        { "blank.trance", "   \n", "false" },
+      };
+      for (String[] c : cases)
+      {
+        File f = write( dir, c[0], c[1] );
+        assertEquals( c[0], Boolean.parseBoolean( c[2] ), PresetLibrary.startsLikeJSON( f ) );
+        assertEquals( c[0], Boolean.parseBoolean( c[2] ), lib.summarize( f, f.lastModified(), f.length() ).isPreset() );
+      }
+      File big = write( dir, "big.trance", "{A:3723}" );
+      assertFalse( "too big", lib.summarize( big, big.lastModified(), PresetLibrary.MAX_FILE + 1 ).isPreset() );
+    }
+    finally
+    {
+      delete( dir );
+    }
+  }
+  @Test
+  public void keepsWatchingAfterErrors() throws Exception
+  {
+    File dir = File.createTempFile( "presets", "" );
+    dir.delete();
+    write( dir, "first.trance", "{A:3723}" );
+    // the index cannot be saved, since its folder is a file
+    File blocker = File.createTempFile( "presets", ".blocker" );
+    PresetLibrary lib = new PresetLibrary( dir, params, new File( blocker, "index" ) );
+    try
+    {
+      lib.start();
+      Thread.sleep( 500 );
+      File added = write( dir, "sub/added.trance", "{A:3723}" );
+      for (int n=0; n < 100  &&  ! lib.contains( added ); n++)
+        Thread.sleep( 100 );
+      assertTrue( "picked up after the index failed to save", lib.contains( added ) );
+    }
+    finally
+    {
+      lib.stop();
+      delete( dir );
+      blocker.delete();
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package com.marklipson.musicgen;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+
+import org.junit.Test;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestSessionFile
+{
+  /**
+   * A session long enough for several key frames: each step lasts 7 seconds, and the values
+   * cover each of the ways a value is stored.
+   */
+  private static JSON session( int steps )
+  {
+    JSON out = JSON.createArray();
+    for (int n=0; n < steps; n++)
+    {
+      JSON step = JSON.createObject();
+      step.set( "name", "step " + n, false );
+      step.set( "duration", 7, false );
+      step.set( "A", 3723 - n * 5, false );
+      step.set( "level", 0.25 + (n % 4) * 0.125, false );
+      step.set( "drift", n / 3.0, false );
+      step.set( "on", n % 3 == 0, false );
+      if (n % 5 != 0)
+        step.set( "sometimes", n, false );
+      if (n % 7 == 0)
+        step.set( "nested", JSON.parse( "{a:" + n + ",b:[1,2]}" ), false );
+      out.addArrayElement( step );
+    }
+    // as it reads back from the JSON text
+    return JSON.parse( out.toString() );
+  }
+  /**
+   * Keys come back in dictionary order, so compare without regard to order.
+   */
+  private static void assertSameSteps( String message, JSON expected, JSON actual )
+  {
+    assertEquals( message, JSONSnapshot.of( expected ), actual == null ? null : JSONSnapshot.of( actual ) );
+  }
+  private static File write( JSON session ) throws Exception
+  {
+    File json = File.createTempFile( "session", ".json" );
+    FileWriter w = new FileWriter( json );
+    w.write( session.toString() );
+    w.close();
+    File binary = File.createTempFile( "session", ".hts" );
+    SessionFile.fromJSON( json, binary );
+    json.delete();
+    return binary;
+  }
+
+  @Test
+  public void roundTrip() throws Exception
+  {
+    JSON session = session( 40 );
+    File binary = write( session );
+    File back = File.createTempFile( "session", ".json" );
+    try
+    {
+      assertTrue( SessionFile.isSessionFile( binary ) );
+      assertSameSteps( "load", session, SessionFile.load( binary ) );
+      SessionFile.toJSON( binary, back );
+      assertTrue( ! SessionFile.isSessionFile( back ) );
+      assertSameSteps( "toJSON", session, JSON.parse( new String( Files.readAllBytes( back.toPath() ), JSONStream.UTF8 ) ) );
+    }
+    finally
+    {
+      binary.delete();
+      back.delete();
+    }
+  }
+  @Test
+  public void seeksBetweenKeyframes() throws Exception
+  {
+    JSON session = session( 100 );
+    File binary = write( session );
+    try( SessionFile.Reader r = new SessionFile.Reader( binary ) )
+    {
+      assertEquals( 100, r.getStepCount() );
+      assertEquals( 700.0, r.getDuration(), 0 );
+      // on, just before and just after step boundaries, either side of each key frame
+      double[] times = { 59, 62.9, 63, 64, 125.5, 69.99, 3.5, 300, 419, 420, 421, 699.5 };
+      for (double t : times)
+      {
+        int step = (int)Math.floor( t / 7 );
+        assertEquals( "at " + t, step, r.seek( t ) );
+        assertEquals( "at " + t, step * 7.0, r.getStepTime(), 0 );
+        assertSameSteps( "at " + t, session.getComplex( step ), r.next() );
+        // and reading on from there
+        if (step + 1 < 100)
+          assertSameSteps( "after " + t, session.getComplex( step + 1 ), r.next() );
+      }
+    }
+    finally
+    {
+      binary.delete();
+    }
+  }
+  @Test
+  public void firstAndLastStep() throws Exception
+  {
+    JSON session = session( 30 );
+    File binary = write( session );
+    try( SessionFile.Reader r = new SessionFile.Reader( binary ) )
+    {
+      assertEquals( 0, r.seek( 0 ) );
+      assertSameSteps( "step 0", session.getComplex( 0 ), r.next() );
+      assertEquals( "before the start", 0, r.seek( -5 ) );
+      assertSameSteps( "step 0", session.getComplex( 0 ), r.next() );
+      assertEquals( 29, r.seek( 29 * 7 ) );
+      assertSameSteps( "step 29", session.getComplex( 29 ), r.next() );
+      assertNull( r.next() );
+      assertEquals( "past the end", 29, r.seek( 1000 ) );
+      assertSameSteps( "step 29", session.getComplex( 29 ), r.next() );
+      assertNull( r.next() );
+    }
+    finally
+    {
+      binary.delete();
+    }
+  }
+  @Test
+  public void emptySession() throws Exception
+  {
+    File binary = write( JSON.createArray() );
+    try( SessionFile.Reader r = new SessionFile.Reader( binary ) )
+    {
+      assertTrue( SessionFile.isSessionFile( binary ) );
+      assertEquals( 0, r.getStepCount() );
+      assertEquals( 0.0, r.getDuration(), 0 );
+      assertEquals( 0, r.seek( 10 ) );
+      assertNull( r.next() );
+      assertEquals( 0, SessionFile.load( binary ).getArraySize() );
+    }
+    finally
+    {
+      binary.delete();
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.marklipson.musicgen;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestSettingsWriter
+{
+  @Test
+  public void replacesFile() throws Exception
+  {
+    File f = File.createTempFile( "settings", ".json" );
+    try
+    {
+      SettingsWriter.replace( f, "{\"a\":1}" );
+      assertEquals( 1, JSON.loadFromFile( f ).getInt( "a", 0 ) );
+      SettingsWriter.replace( f, "{\"a\":2}" );
+      assertEquals( 2, JSON.loadFromFile( f ).getInt( "a", 0 ) );
+      String[] left = f.getParentFile().list();
+      for (String name : left)
+        assertTrue( "temp file left behind", ! (name.startsWith( f.getName() )  &&  name.endsWith( ".tmp" )) );
+    }
+    finally
+    {
+      f.delete();
+    }
+  }
+  @Test
+  public void coalescesChanges() throws Exception
+  {
+    File f = File.createTempFile( "settings", ".json" );
+    final AtomicInteger value = new AtomicInteger();
+    final AtomicInteger asked = new AtomicInteger();
+    SettingsWriter.Source source = new SettingsWriter.Source()
+    {
+      @Override
+      public JSONSnapshot getSettings( JSONSnapshot previous )
+      {
+        asked.incrementAndGet();
+        return previous.with( "v", value.get() );
+      }
+    };
+    SettingsWriter w = new SettingsWriter( f, source, JSONSnapshot.EMPTY_OBJECT.with( "v", 0 ), 50, 400 );
+    Thread t = new Thread( w );
+    t.start();
+    try
+    {
+      Thread.sleep( 100 );
+      assertEquals( "idle", 0, asked.get() );
+      for (int n=1; n <= 20; n++)
+      {
+        value.set( n );
+        w.changed();
+      }
+      Thread.sleep( 300 );
+      assertEquals( "one write for a burst", 1, asked.get() );
+      assertEquals( 20, JSON.loadFromFile( f ).getInt( "v", 0 ) );
+      w.changed();
+      Thread.sleep( 300 );
+      assertEquals( 2, asked.get() );
+      value.set( 21 );
+      w.flush();
+      assertEquals( 21, JSON.loadFromFile( f ).getInt( "v", 0 ) );
+    }
+    finally
+    {
+      t.interrupt();
+      f.delete();
+    }
+  }
+}
@@ -2,6 +2,8 @@ package com.marklipson.musicgen;
 
 import org.junit.Test;
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
 
 public class TestTimeFunction
 {
@@ -33,4 +35,115 @@ public class TestTimeFunction
     assertEquals( Math.sin(1), lr[0], 0.001 );
     assertEquals( Math.cos(1), lr[1], 0.001 );
   }
+  @Test
+  public void peakBound() throws Exception
+  {
+    assertEquals( 1.0, TimeFunction.compile( "sin(ta)*cos(t)" ).getPeakBound(), 1e-9 );
+    assertEquals( 3.0, TimeFunction.compile( "x = sin(t); 2x + abs(cos(tb))" ).getPeakBound(), 1e-9 );
+    assertEquals( "squares", 4.0, TimeFunction.compile( "(2sin(t))^2" ).getPeakBound(), 1e-6 );
+    assertEquals( "uses left and right", 2.0, TimeFunction.compile( "left=2sin(t); right=cos(t); 0" ).getPeakBound(), 1e-9 );
+    assertEquals( "division by something that is never zero", 1.0, TimeFunction.compile( "sin(t)/(2+cos(t))" ).getPeakBound(), 1e-9 );
+    assertEquals( "bounded log", Math.log( 3 ), TimeFunction.compile( "log(2+cos(t))" ).getPeakBound(), 1e-9 );
+    // variables not assigned first could hold anything
+    assertEquals( 1.0, TimeFunction.compile( "x = x + 1; sin(x)" ).getPeakBound(), 1e-9 );
+    assertTrue( Double.isInfinite( TimeFunction.compile( "x = x + 1; x" ).getPeakBound() ) );
+    assertTrue( Double.isInfinite( TimeFunction.compile( "log(t)" ).getPeakBound() ) );
+    assertTrue( Double.isInfinite( TimeFunction.compile( "1/cos(t)" ).getPeakBound() ) );
+    assertTrue( Double.isInfinite( TimeFunction.compile( "sin(t)^0.5" ).getPeakBound() ) );
+  }
+  @Test
+  public void boundIsSafe() throws Exception
+  {
+    String[] functions = { "sin(ta)*cos(tb) + 0.5sin(t)", "x = sin(t); x*x*x - abs(x)", "left=sin(t)^3; right=(cos(t)+2)^-1", "sin(t)/(1.5+cos(3t))" };
+    for (String source : functions)
+    {
+      TimeFunction.CompiledFunction f = TimeFunction.compile( source );
+      f.autoSetScale();
+      assertFalse( source, f.isTracking() );
+      double lr[] = new double[ 2 ];
+      for (int n=0; n < 10000; n++)
+      {
+        f.setVar( "ta", n * 0.37 );
+        f.setVar( "tb", n * 1.91 );
+        f.evaluateStereo( n * 0.013, lr );
+        assertTrue( source, Math.abs( lr[0] ) <= 1  &&  Math.abs( lr[1] ) <= 1 );
+      }
+    }
+  }
+  @Test
+  public void unboundedTracksPeak() throws Exception
+  {
+    TimeFunction.CompiledFunction f = TimeFunction.compile( "log(t)" );
+    f.autoSetScale();
+    assertTrue( f.isTracking() );
+    double lr[] = new double[ 2 ];
+    f.evaluateStereo( 0, lr );
+    assertEquals( "infinities go silent", 0.0, lr[0] );
+    for (int n=1; n < 1000; n++)
+    {
+      f.evaluateStereo( n, lr );
+      assertTrue( Math.abs( lr[0] ) <= 1 );
+    }
+    f.evaluateStereo( 1000, lr );
+    assertEquals( 1.0, lr[0], 1e-6 );
+    f.evaluateStereo( 10, lr );
+    assertEquals( "scale only shrinks", Math.log( 10 ) / Math.log( 1000 ), lr[0], 1e-6 );
+  }
+  @Test
+  public void simplified() throws Exception
+  {
+    assertEquals( "squares", 9.0, TimeFunction.compile( "(t+1)^2" ).evaluateMono( 2 ), 1e-9 );
+    assertEquals( "cubes", -8.0, TimeFunction.compile( "(t-4)^3" ).evaluateMono( 2 ), 1e-9 );
+    assertEquals( "fourth powers", 16.0, TimeFunction.compile( "(sin(t)+2)^4" ).evaluateMono( 0 ), 1e-9 );
+    assertEquals( "reciprocals", 0.25, TimeFunction.compile( "t^-1" ).evaluateMono( 4 ), 1e-9 );
+    assertEquals( "division by a constant", 0.5, TimeFunction.compile( "t/4" ).evaluateMono( 2 ), 1e-9 );
+    assertEquals( "identities", 3.0, TimeFunction.compile( "0 + 1*t - 0 + 0*x" ).evaluateMono( 3 ), 1e-9 );
+    assertEquals( "negation", 3.0, TimeFunction.compile( "-(-t)" ).evaluateMono( 3 ), 1e-9 );
+    assertEquals( 1.0, TimeFunction.compile( "(2t)^0" ).evaluateMono( 3 ), 1e-9 );
+  }
+  @Test
+  public void sharedSubexpressions() throws Exception
+  {
+    TimeFunction.CompiledFunction f = TimeFunction.compile( "left=sin(2t)*sin(3a); right=sin(2t)*cos(3a)", "a" );
+    double lr[] = new double[ 2 ];
+    for (int n=0; n < 10; n++)
+    {
+      double a = 1 + n/4;
+      f.setVar( "a", a );
+      f.evaluateStereo( n, lr );
+      assertEquals( Math.sin( 2*n ) * Math.sin( 3*a ), lr[0], 1e-6 );
+      assertEquals( Math.sin( 2*n ) * Math.cos( 3*a ), lr[1], 1e-6 );
+    }
+    // "x*2" means something different once x is assigned again
+    assertEquals( 8.0, TimeFunction.compile( "x = t; y = x*2; x = 3; x*2 + y" ).evaluateMono( 1 ), 1e-9 );
+    // and before it is assigned, x is whatever it was last time
+    f = TimeFunction.compile( "z = x*2; x = t; w = x*2; z + w" );
+    assertEquals( 8.0, f.evaluateMono( 4 ), 1e-9 );
+    assertEquals( 10.0, f.evaluateMono( 1 ), 1e-9 );
+  }
+  @Test
+  public void heldVariables() throws Exception
+  {
+    TimeFunction.CompiledFunction f = TimeFunction.compile( "sin(ta)*(1 + sin(a/100)^2) + log(b)", "a", "b" );
+    TimeFunction.CompiledFunction copy = f.copy();
+    for (double b : new double[] { 1, 1, 2, 2, 5 })
+    {
+      for (double a : new double[] { 100, 100, 300 })
+      {
+        for (TimeFunction.CompiledFunction fn : new TimeFunction.CompiledFunction[] { f, copy })
+        {
+          fn.setVar( "a", a );
+          fn.setVar( "b", b );
+          fn.setVar( "ta", a + b );
+          double expected = Math.sin( a + b ) * (1 + Math.pow( Math.sin( a/100 ), 2 )) + Math.log( b );
+          assertEquals( expected, fn.evaluateMono( 0 ), 1e-6 );
+        }
+      }
+    }
+    // assigned, so not held after all
+    TimeFunction.CompiledFunction g = TimeFunction.compile( "a = 2t; a*3", "a" );
+    g.setVar( "a", 5 );
+    assertEquals( 6.0, g.evaluateMono( 1 ), 1e-9 );
+    assertEquals( 12.0, g.evaluateMono( 2 ), 1e-9 );
+  }
 }
@@ -0,0 +1,97 @@
+package com.marklipson.musicgen;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestTimeline
+{
+  @Test
+  public void interpolates()
+  {
+    Timeline t = new Timeline( 2, 16 );
+    assertTrue( "empty", Double.isNaN( t.valueAt( 0, 0 ) ) );
+    t.record( 100, new double[] { 1, 10 } );
+    t.record( 200, new double[] { 3, 20 } );
+    assertEquals( "between", 2.0, t.valueAt( 0, 150 ), 1e-9 );
+    assertEquals( "other channel", 12.5, t.valueAt( 1, 125 ), 1e-9 );
+    assertEquals( "on a row", 3.0, t.valueAt( 0, 200 ), 1e-9 );
+    assertEquals( "before", 1.0, t.valueAt( 0, 0 ), 1e-9 );
+    assertEquals( "after", 3.0, t.valueAt( 0, 1000 ), 1e-9 );
+  }
+  @Test
+  public void keepsRecentRows()
+  {
+    Timeline t = new Timeline( 1, 16 );
+    for (int n=0; n < 100; n++)
+      t.record( n * 10, new double[] { n } );
+    assertEquals( "recent", 95.5, t.valueAt( 0, 955 ), 1e-9 );
+    // the oldest usable row is the newest minus (capacity - spare)
+    double oldest = 100 - (16 - Timeline.SPARE);
+    assertEquals( "too old", oldest, t.valueAt( 0, 0 ), 1e-9 );
+  }
+  @Test
+  public void clear()
+  {
+    Timeline t = new Timeline( 1, 16 );
+    t.record( 500, new double[] { 5 } );
+    t.clear();
+    assertTrue( "cleared", Double.isNaN( t.valueAt( 0, 500 ) ) );
+    t.record( 0, new double[] { 7 } );
+    assertEquals( "after a jump back", 7.0, t.valueAt( 0, 500 ), 1e-9 );
+  }
+  @Test
+  public void readsWhileWriting() throws Exception
+  {
+    final int capacity = 16;
+    final long total = 2000000;
+    final Timeline t = new Timeline( 2, capacity );
+    final AtomicLong written = new AtomicLong();
+    final AtomicReference<String> failure = new AtomicReference<String>();
+    // each row holds its own sample position / 10, so a row torn between two writes stands out
+    Thread[] readers = new Thread[ 2 ];
+    for (int r=0; r < readers.length; r++)
+    {
+      final Random rnd = new Random( r );
+      readers[r] = new Thread()
+      {
+        @Override
+        public void run()
+        {
+          while (written.get() < total  &&  failure.get() == null)
+          {
+            // halfway between the oldest usable rows, which are the next ones to be replaced
+            long k = Math.max( 0, written.get() - capacity + Timeline.SPARE + rnd.nextInt( 2 ) );
+            double sample = k * 10 + 5;
+            check( sample, t.valueAt( 0, sample ), k + 0.5 );
+            check( sample, t.valueAt( 1, sample ), -(k + 0.5) );
+          }
+        }
+        private void check( double sample, double v, double between )
+        {
+          // either interpolated, or the value of the oldest or newest row
+          if (! Double.isNaN( v )  &&  v != between  &&  v != Math.rint( v ))
+            failure.set( "at " + sample + " got " + v );
+        }
+      };
+      readers[r].start();
+    }
+    double[] row = new double[ 2 ];
+    for (long n=0; n < total  &&  failure.get() == null; n++)
+    {
+      row[0] = n;
+      row[1] = -n;
+      t.record( n * 10, row );
+      written.set( n + 1 );
+    }
+    written.set( total );
+    for (Thread reader : readers)
+      reader.join();
+    assertNull( failure.get() );
+  }
+}
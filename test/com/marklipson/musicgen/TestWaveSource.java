@@ -0,0 +1,103 @@
+package com.marklipson.musicgen;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+import static junit.framework.TestCase.assertEquals;
+
+public class TestWaveSource
+{
+  private WaveSource source()
+  {
+    WaveSource w = new WaveSource( 4 );
+    w.vA.setValue( 110 );
+    w.vBlo.setValue( 2 );
+    w.vBhi.setValue( 7 );
+    w.vBeatCycle.setValue( 3.3 );
+    w.vBalCycle.setValue( 5.1 );
+    w.vH[0].setValue( 1 );
+    w.vH[1].setValue( 0.3 );
+    w.mute( false );
+    return w;
+  }
+  @Test
+  public void seekMatchesContinuousRender() throws Exception
+  {
+    WaveSource played = source();
+    int block = 4410;
+    for (int n=0; n < 150; n++)
+      played.generate( block );
+    WaveSource seeked = source();
+    seeked.seek( 15 );
+    assertEquals( played.tGen(), seeked.tGen(), 1e-9 );
+    float[][] a = played.generate( block );
+    float[][] b = seeked.generate( block );
+    for (int n=0; n < block; n++)
+    {
+      assertEquals( "left @" + n, a[0][n], b[0][n], 1e-4 );
+      assertEquals( "right @" + n, a[1][n], b[1][n], 1e-4 );
+    }
+  }
+  @Test
+  public void steadyStateDoesNotAllocate() throws Exception
+  {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    WaveSource w = source();
+    w.setMetrics( new RenderMetrics() );
+    w.customLevel.setValue( 0.5 );
+    int block = 4410;
+    float[] L = new float[ block ], R = new float[ block ];
+    w.setCustomFunction( TimeFunction.compile( "left = sin(ta); right = sin(tb)" ) );
+    w.generate( L, R, 0, block );
+    // swapped in while the first is still playing, so both get evaluated
+    w.setCustomFunction( TimeFunction.compile( "sin(ta) * cos(t)" ) );
+    for (int n=0; n < 50; n++)
+      w.generate( L, R, 0, block );
+    // a per-sample allocation shows up in every window; a one-off recompile by the JIT does not
+    long allocated = Long.MAX_VALUE;
+    for (int window=0; window < 5; window++)
+    {
+      long before = threads.getThreadAllocatedBytes( thread );
+      for (int n=0; n < 10; n++)
+        w.generate( L, R, 0, block );
+      allocated = Math.min( allocated, threads.getThreadAllocatedBytes( thread ) - before );
+    }
+    assertEquals( "bytes allocated", 0, allocated );
+  }
+  @Test
+  public void fastKernelSoundsTheSame() throws Exception
+  {
+    WaveSource exact = source();
+    WaveSource fast = source();
+    fast.setMathKernel( MathKernel.FAST );
+    exact.setCustomFunction( TimeFunction.compile( "sin(ta) * cos(t)" ) );
+    fast.setCustomFunction( TimeFunction.compile( "sin(ta) * cos(t)" ) );
+    exact.customLevel.setValue( 0.5 );
+    fast.customLevel.setValue( 0.5 );
+    int block = 4410;
+    for (int n=0; n < 20; n++)
+    {
+      float[][] a = exact.generate( block );
+      float[][] b = fast.generate( block );
+      for (int i=0; i < block; i++)
+      {
+        assertEquals( "left @" + i, a[0][i], b[0][i], 1e-5 );
+        assertEquals( "right @" + i, a[1][i], b[1][i], 1e-5 );
+      }
+    }
+  }
+  @Test
+  public void publishesTimeEachBlock() throws Exception
+  {
+    WaveSource w = source();
+    assertEquals( 0.0, w.tGenerated(), 0 );
+    float[] L = new float[ 4410 ], R = new float[ 4410 ];
+    w.generate( L, R, 0, 4410 );
+    w.generate( L, R, 0, 4410 );
+    assertEquals( 0.2, w.tGenerated(), 1e-12 );
+    assertEquals( w.tGen(), w.tGenerated(), 0 );
+    w.seek( 5 );
+    assertEquals( 5.0, w.tGenerated(), 0 );
+  }
+}
@@ -0,0 +1,55 @@
+package org.xiph.libogg;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static junit.framework.TestCase.assertEquals;
+
+public class TestOggPage
+{
+  /**
+   * The checksum the way it used to be computed, one byte at a time.
+   */
+  private static int byteAtATime( int crc, byte[] data, int off, int len )
+  {
+    for (int i=off; i < off + len; i++)
+      crc = (crc << 8) ^ ogg_page.crc_lookup[ ((crc >>> 24) & 0xff) ^ (data[i] & 0xff) ];
+    return crc;
+  }
+
+  @Test
+  public void crcMatchesByteAtATime()
+  {
+    Random rnd = new Random( 3 );
+    byte[] data = new byte[ 80 ];
+    for (int round=0; round < 2000; round++)
+    {
+      rnd.nextBytes( data );
+      int crc = (round % 2 == 0) ? 0 : rnd.nextInt();
+      for (int off=0; off < 8; off++)
+        for (int len=0; len <= 64; len++)
+          assertEquals( "round " + round + " off " + off + " len " + len,
+              byteAtATime( crc, data, off, len ), ogg_page.crc_update( crc, data, off, len ) );
+    }
+  }
+  @Test
+  public void checksumOfPage()
+  {
+    ogg_page page = new ogg_page();
+    page.header = new byte[ 27 ];
+    page.header_len = page.header.length;
+    page.body = new byte[ 1000 ];
+    page.body_len = 999;
+    Random rnd = new Random( 5 );
+    rnd.nextBytes( page.header );
+    rnd.nextBytes( page.body );
+    page.ogg_page_checksum_set();
+    int stored = (page.header[22] & 0xff) | (page.header[23] & 0xff) << 8 | (page.header[24] & 0xff) << 16 | (page.header[25] & 0xff) << 24;
+    // the checksum covers the header with its own field zeroed
+    byte[] header = page.header.clone();
+    for (int n=22; n < 26; n++)
+      header[n] = 0;
+    int expected = byteAtATime( byteAtATime( 0, header, 0, page.header_len ), page.body, 0, page.body_len );
+    assertEquals( expected, stored );
+  }
+}
@@ -0,0 +1,132 @@
+package org.xiph.libvorbis;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestOggpackBuffer
+{
+  /**
+   * The writer as it was before it stored whole words: one byte at a time, growing by a fixed
+   * increment.
+   */
+  static class ByteWriter
+  {
+    int endbyte;
+    int endbit;
+    byte[] buffer = new byte[ 256 ];
+    int ptr;
+
+    void write( int value8, int bits )
+    {
+      if (endbyte + 4 >= buffer.length)
+      {
+        buffer = Arrays.copyOf( buffer, buffer.length + 256 );
+        ptr = endbyte;
+      }
+      value8 &= oggpack_buffer.mask[ bits ];
+      bits += endbit;
+      buffer[ ptr ] |= value8 << endbit;
+      if (bits >= 8)
+      {
+        buffer[ ptr+1 ] = (byte)(value8 >>> (8 - endbit));
+        if (bits >= 16)
+        {
+          buffer[ ptr+2 ] = (byte)(value8 >>> (16 - endbit));
+          if (bits >= 24)
+          {
+            buffer[ ptr+3 ] = (byte)(value8 >>> (24 - endbit));
+            if (bits >= 32)
+              buffer[ ptr+4 ] = (endbit != 0) ? (byte)(value8 >>> (32 - endbit)) : 0;
+          }
+        }
+      }
+      endbyte += bits / 8;
+      ptr += bits / 8;
+      endbit = bits & 7;
+    }
+    void truncate( int bits )
+    {
+      int bytes = bits >> 3;
+      bits -= bytes*8;
+      ptr = bytes;
+      endbit = bits;
+      endbyte = bytes;
+      buffer[ ptr ] = (byte)oggpack_buffer.mask[ bits ];
+    }
+    void reset()
+    {
+      ptr = 0;
+      buffer[0] = 0;
+      endbit = 0;
+      endbyte = 0;
+    }
+    int bytes()
+    {
+      return endbyte + (endbit + 7)/8;
+    }
+  }
+
+  private static void assertSameOutput( String when, ByteWriter expected, oggpack_buffer actual )
+  {
+    assertEquals( when + ": bits", expected.endbyte*8 + expected.endbit, actual.oggpack_bits() );
+    assertEquals( when + ": bytes", expected.bytes(), actual.oggpack_bytes() );
+    byte[] a = Arrays.copyOf( expected.buffer, expected.bytes() );
+    byte[] b = Arrays.copyOf( actual.buffer, actual.oggpack_bytes() );
+    assertTrue( when + ": contents", Arrays.equals( a, b ) );
+  }
+
+  @Test
+  public void sameBitsAsByteWriter()
+  {
+    Random rnd = new Random( 11 );
+    for (int round=0; round < 200; round++)
+    {
+      ByteWriter expected = new ByteWriter();
+      oggpack_buffer actual = new oggpack_buffer();
+      int ops = rnd.nextInt( 3000 );
+      for (int op=0; op < ops; op++)
+      {
+        int what = rnd.nextInt( 100 );
+        String when = "round " + round + " op " + op;
+        if (what < 2)
+        {
+          expected.reset();
+          actual.oggpack_reset();
+        }
+        else if (what < 5)
+        {
+          int bits = rnd.nextInt( expected.endbyte*8 + expected.endbit + 1 );
+          expected.truncate( bits );
+          actual.oggpack_writetrunc( bits );
+        }
+        else
+        {
+          // all widths, with stray bits above the width that have to be masked off
+          int bits = rnd.nextInt( 33 );
+          int value = rnd.nextInt();
+          expected.write( value, bits );
+          actual.oggpack_write( value, bits );
+        }
+        assertSameOutput( when, expected, actual );
+      }
+    }
+  }
+  @Test
+  public void growsPastManyIncrements()
+  {
+    ByteWriter expected = new ByteWriter();
+    oggpack_buffer actual = new oggpack_buffer();
+    for (int n=0; n < 100000; n++)
+    {
+      expected.write( n * 0x9e3779b9, 32 );
+      actual.oggpack_write( n * 0x9e3779b9, 32 );
+      expected.write( n, 3 );
+      actual.oggpack_write( n, 3 );
+    }
+    assertSameOutput( "end", expected, actual );
+  }
+}
@@ -20,12 +20,23 @@ public class ogg_page {
 	public int body_len;		// long
 	
 	// static ogg_uint32_t crc_lookup[256]={
-	private static int[] crc_lookup = new int[256];
+	static int[] crc_lookup = new int[256];
+	
+	// slicing-by-8: crc_slice[k][i] is the crc of byte i followed by k zero bytes
+	private static int[][] crc_slice = new int[8][];
 	
 	static {
 		for ( int i=0; i < crc_lookup.length; i++ ) {
 			crc_lookup[i] = crc_entry(i);
 		}
+		crc_slice[0] = crc_lookup;
+		for ( int k=1; k < 8; k++ ) {
+			crc_slice[k] = new int[256];
+			for ( int i=0; i < 256; i++ ) {
+				int r = crc_slice[k-1][i];
+				crc_slice[k][i] = (r<<8)^crc_lookup[(r>>>24)&0xff];
+			}
+		}
 	}
 	
 	private static int crc_entry( int index ) {
@@ -65,16 +76,33 @@ public class ogg_page {
 		header[24] = 0;
 		header[25] = 0;
 		
-		for ( i=0; i < header_len; i++ ) {
-			crc_reg = (crc_reg<<8)^crc_lookup[((crc_reg>>>24)&0xff)^(header[i]&0xff)];
-		}
-		for ( i=0; i < body_len; i++ ) {
-			crc_reg = (crc_reg<<8)^crc_lookup[((crc_reg>>>24)&0xff)^(body[i]&0xff)];
-		}
+		crc_reg = crc_update( crc_reg, header, 0, header_len );
+		crc_reg = crc_update( crc_reg, body, 0, body_len );
 		
 	    header[22] = (byte)crc_reg /*&0xff*/;
 	    header[23] = (byte)(crc_reg>>>8) /*&0xff*/;
 	    header[24] = (byte)(crc_reg>>>16) /*&0xff*/;
 	    header[25] = (byte)(crc_reg>>>24) /*&0xff*/;
 	}
+	
+	/**
+	 * Same result as running crc_lookup over data[off..off+len) one byte at a time, but takes eight
+	 * bytes per step.
+	 */
+	static int crc_update( int crc_reg, byte[] data, int off, int len ) {
+		
+		int[] t0 = crc_slice[0], t1 = crc_slice[1], t2 = crc_slice[2], t3 = crc_slice[3];
+		int[] t4 = crc_slice[4], t5 = crc_slice[5], t6 = crc_slice[6], t7 = crc_slice[7];
+		int i = off, end = off + len;
+		
+		for ( ; i + 8 <= end; i += 8 ) {
+			int hi = crc_reg ^ ( ((data[i]&0xff)<<24) | ((data[i+1]&0xff)<<16) | ((data[i+2]&0xff)<<8) | (data[i+3]&0xff) );
+			crc_reg = t7[hi>>>24] ^ t6[(hi>>>16)&0xff] ^ t5[(hi>>>8)&0xff] ^ t4[hi&0xff]
+				^ t3[data[i+4]&0xff] ^ t2[data[i+5]&0xff] ^ t1[data[i+6]&0xff] ^ t0[data[i+7]&0xff];
+		}
+		for ( ; i < end; i++ ) {
+			crc_reg = (crc_reg<<8)^t0[((crc_reg>>>24)&0xff)^(data[i]&0xff)];
+		}
+		return crc_reg;
+	}
 }
\ No newline at end of file
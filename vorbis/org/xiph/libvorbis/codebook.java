@@ -32,6 +32,13 @@ public class codebook {
 	int[] dec_firsttable;	// ogg_uint32_t *dec_firsttable
 	int dec_firsttablen;
 	int dec_maxlength;
+
+	// encode only - search helpers for vorbis_block.local_book_besterror
+
+	float thresh_first;		// lowest quantization threshold
+	float thresh_scale;		// 1/spacing of the thresholds, for a first guess at the interval
+	int[] usedlist;			// entries that have a codeword, in entry order
+	float[] usedvalues;		// their values, packed dim at a time
 	
 	public codebook() {}
 
@@ -44,6 +51,29 @@ public class codebook {
 
 		codelist = _make_words( s.lengthlist, s.entries, 0 );
 		valuelist = _book_unquantize( s, s.entries, null );
+
+		encode_aux_threshmatch tt = s.thresh_tree;
+		if ( tt != null && tt.threshvals > 1 ) {
+			thresh_first = tt.quantthresh[0];
+			if ( tt.threshvals > 2 )
+				thresh_scale = (tt.threshvals-2) / ( tt.quantthresh[tt.threshvals-2] - tt.quantthresh[0] );
+		}
+
+		if ( valuelist != null ) {
+			int i, n = 0;
+			for ( i=0; i < entries; i++ )
+				if ( s.lengthlist[i] > 0 )
+					n++;
+			usedlist = new int[ n ];
+			usedvalues = new float[ n*dim ];
+			for ( i=0, n=0; i < entries; i++ ) {
+				if ( s.lengthlist[i] > 0 ) {
+					usedlist[n] = i;
+					System.arraycopy( valuelist, i*dim, usedvalues, n*dim, dim );
+					n++;
+				}
+			}
+		}
 	}
 
 	private int[] _make_words( int[] l, int n, int sparsecount ) {
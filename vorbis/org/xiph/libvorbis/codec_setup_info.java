@@ -54,6 +54,7 @@ class codec_setup_info {
 
 	bitrate_manager_info bi;
 	highlevel_encode_setup hi;				// used only by vorbisenc.c - Redundant
+	String setup_key;						// encode only - identifies the setup for vorbis_setup_cache, or null
 
 	int halfrate_flag;						// painless downsample for decode
 
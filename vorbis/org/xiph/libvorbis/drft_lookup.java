@@ -12,7 +12,7 @@
 
 package org.xiph.libvorbis;
 
-class drft_lookup {
+public class drft_lookup {
 
 	static final int L101 = 101;
 	static final int L102 = 102;
@@ -322,21 +322,21 @@ class drft_lookup {
 			t2=t0;
 
 			for ( k=0; k<l1; k++ ) {
+				// every index below is a fixed base +/- i, so the JIT can hoist the bounds checks
 				t3=t2;
 				t4=(t1<<1)+(ido<<1);
 				t5=t1;
 				t6=t1+t1;
 				for ( i=2; i<ido; i+=2 ) {
-					t3+=2;
-					t4-=2;
-					t5+=2;
-					t6+=2;
-					tr2=wa1[waoff+i-2]*cc[t3-1]+wa1[waoff+i-1]*cc[t3];
-					ti2=wa1[waoff+i-2]*cc[t3]-wa1[waoff+i-1]*cc[t3-1];
-					ch[t6]=cc[t5]+ti2;
-					ch[t4]=ti2-cc[t5];
-					ch[t6-1]=cc[t5-1]+tr2;
-					ch[t4-1]=cc[t5-1]-tr2;
+					float w0=wa1[waoff+i-2], w1=wa1[waoff+i-1];
+					float c0=cc[t3+i-1], c1=cc[t3+i];
+					float d0=cc[t5+i-1], d1=cc[t5+i];
+					tr2=w0*c0+w1*c1;
+					ti2=w0*c1-w1*c0;
+					ch[t6+i]=d1+ti2;
+					ch[t4-i]=ti2-d1;
+					ch[t6+i-1]=d0+tr2;
+					ch[t4-i-1]=d0-tr2;
 				}
 				t1+=ido;
 				t2+=ido;
@@ -390,46 +390,51 @@ class drft_lookup {
 		if ( ido != 2 ) {
 
 			t1=0;
+			t6=ido<<1;
 			for ( k=0; k<l1; k++ ) {
-				t2=t1;
+				// the four inputs start at t1 + 0..3 * t0 and the outputs at t4 + 0..2 * t6;
+				// indexing them all as a fixed base +/- i lets the JIT hoist the bounds checks
+				int a1=t1+t0, a2=a1+t0, a3=a2+t0;
 				t4=t1<<2;
-				t5=(t6=ido<<1)+t4;
+				t5=t4+t6;
+				int t7=t5+t6;
 				for ( i=2; i<ido; i+=2 ) {
-					t3=(t2+=2);
-					t4+=2;
-					t5-=2;
-
-					t3+=t0;
-					cr2=wa[wa1+i-2]*cc[t3-1]+wa[wa1+i-1]*cc[t3];
-					ci2=wa[wa1+i-2]*cc[t3]-wa[wa1+i-1]*cc[t3-1];
-					t3+=t0;
-					cr3=wa[wa2+i-2]*cc[t3-1]+wa[wa2+i-1]*cc[t3];
-					ci3=wa[wa2+i-2]*cc[t3]-wa[wa2+i-1]*cc[t3-1];
-					t3+=t0;
-					cr4=wa[wa3+i-2]*cc[t3-1]+wa[wa3+i-1]*cc[t3];
-					ci4=wa[wa3+i-2]*cc[t3]-wa[wa3+i-1]*cc[t3-1];
+					float x1r=cc[a1+i-1], x1i=cc[a1+i];
+					float x2r=cc[a2+i-1], x2i=cc[a2+i];
+					float x3r=cc[a3+i-1], x3i=cc[a3+i];
+					float w1r=wa[wa1+i-2], w1i=wa[wa1+i-1];
+					float w2r=wa[wa2+i-2], w2i=wa[wa2+i-1];
+					float w3r=wa[wa3+i-2], w3i=wa[wa3+i-1];
+
+					cr2=w1r*x1r+w1i*x1i;
+					ci2=w1r*x1i-w1i*x1r;
+					cr3=w2r*x2r+w2i*x2i;
+					ci3=w2r*x2i-w2i*x2r;
+					cr4=w3r*x3r+w3i*x3i;
+					ci4=w3r*x3i-w3i*x3r;
 
 					tr1=cr2+cr4;
 					tr4=cr4-cr2;
 					ti1=ci2+ci4;
 					ti4=ci2-ci4;
 
-					ti2=cc[t2]+ci3;
-					ti3=cc[t2]-ci3;
-					tr2=cc[t2-1]+cr3;
-					tr3=cc[t2-1]-cr3;
+					float x0r=cc[t1+i-1], x0i=cc[t1+i];
+					ti2=x0i+ci3;
+					ti3=x0i-ci3;
+					tr2=x0r+cr3;
+					tr3=x0r-cr3;
 
-					ch[t4-1]=tr1+tr2;
-					ch[t4]=ti1+ti2;
+					ch[t4+i-1]=tr1+tr2;
+					ch[t4+i]=ti1+ti2;
 
-					ch[t5-1]=tr3-ti4;
-					ch[t5]=tr4-ti3;
+					ch[t5-i-1]=tr3-ti4;
+					ch[t5-i]=tr4-ti3;
 
-					ch[t4+t6-1]=ti4+tr3;
-					ch[t4+t6]=tr4+ti3;
+					ch[t5+i-1]=ti4+tr3;
+					ch[t5+i]=tr4+ti3;
 
-					ch[t5+t6-1]=tr2-tr1;
-					ch[t5+t6]=ti1-ti2;
+					ch[t7-i-1]=tr2-tr1;
+					ch[t7-i]=ti1-ti2;
 				}
 				t1+=ido;
 			}
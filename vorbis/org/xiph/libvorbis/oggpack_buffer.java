@@ -12,6 +12,8 @@
 
 package org.xiph.libvorbis;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.*;
 
 import static org.xiph.libvorbis.vorbis_constants.integer_constants.*;
@@ -25,6 +27,9 @@ class oggpack_buffer {
 	int ptr;		// unsigned char *ptr;	// offset
 	int storage;	// long
 	
+	// little endian view of buffer, so bits can be stored a whole word at a time
+	private ByteBuffer words;
+	
 	static int[] mask = new int[]{
         0x00000000, 
         0x00000001, 
@@ -67,6 +72,7 @@ class oggpack_buffer {
 		buffer = new byte[ BUFFER_INCREMENT ];
 		buffer[0] = (byte)'\0';
 		storage = BUFFER_INCREMENT;
+		words = ByteBuffer.wrap( buffer ).order( ByteOrder.LITTLE_ENDIAN );
 	}
 	
 	public void oggpack_reset() {
@@ -87,36 +93,23 @@ class oggpack_buffer {
 
     public void oggpack_write( int value8, int bits ) {
     	
-        if ( endbyte + 4 >= storage ) {
-        	storage += BUFFER_INCREMENT;
+    	// room for a whole word past the current byte; grow by doubling
+        if ( endbyte + 8 >= storage ) {
+        	storage *= 2;
 //        	 b->buffer=_ogg_realloc(b->buffer,b->storage+BUFFER_INCREMENT);
         	byte[] temp = new byte[ storage ];
     		System.arraycopy( buffer, 0, temp, 0, buffer.length );
     		buffer = temp;
+    		words = ByteBuffer.wrap( buffer ).order( ByteOrder.LITTLE_ENDIAN );
             ptr = endbyte;
         }
-        value8 &= mask[ bits ];
+        // merge with the partial byte at ptr and store up to 39 bits in one go;
+        // this zeroes a few bytes past the end, which are never part of the output
+        long word = ( buffer[ ptr ] & 0xffL ) | ( ( value8 & mask[ bits ] & 0xffffffffL ) << endbit );
+        words.putLong( ptr, word );
         bits += endbit;
-        buffer[ ptr ] |= value8 << endbit;
-        if ( bits >= 8 ) {
-        	buffer[ ptr+1 ] = (byte)(value8 >>> (8 - endbit));
-            if ( bits >= 16 ) {
-            	buffer[ ptr+2 ] = (byte)(value8 >>> (16 - endbit));
-                if ( bits >= 24 ) {
-                	buffer[ ptr+3 ] = (byte)(value8 >>> (24 - endbit));
-                    if ( bits >= 32 ) {
-                        if ( endbit != 0 ) {
-                        	buffer[ ptr+4 ] = (byte)(value8 >>> (32 - endbit));
-                        }
-                        else {
-                        	buffer[ ptr+4 ] = 0;
-                        }
-                    }
-                }
-            }
-        }
-        endbyte += bits / 8;
-        ptr += bits / 8;
+        endbyte += bits >> 3;
+        ptr += bits >> 3;
         endbit = bits & 7;
     }
     
@@ -1297,27 +1297,28 @@ public class vorbis_block {
 		int best = 0;
 		
 		encode_aux_threshmatch tt = book.c.thresh_tree;
+		final float[] thresh = tt.quantthresh;
+		final int last = tt.threshvals-1;
 		
 		// find the quant val of each scalar
 		for ( k=0, o=dim; k < dim; ++k ) {
 
 			float val = a[a_off + --o];
-			i = tt.threshvals >> 1;
-		
-			if ( val < tt.quantthresh[i] ) {
-				
-				if ( val < tt.quantthresh[i-1] ) {
-					for ( --i; i > 0; --i )
-						if ( val >= tt.quantthresh[i-1] )
-							break;	
-				}	
-			}
-			else {
-				
-				for ( ++i; i < tt.threshvals-1; ++i )
-					if ( val < tt.quantthresh[i] )
-						break;	
-			}
+
+			// the thresholds are (nearly always) evenly spaced, so guess the interval directly
+			// and then step to the exact one, which is the number of thresholds <= val
+			float guess = ( val - book.thresh_first ) * book.thresh_scale;
+			if ( guess < 0 )
+				i = 0;
+			else if ( guess >= last-1 )
+				i = last;
+			else
+				i = (int)guess + 1;
+
+			while ( i > 0 && val < thresh[i-1] )
+				--i;
+			while ( i < last && !( val < thresh[i] ) )
+				++i;
 			
 			best = (best*tt.quantvals) + tt.quantmap[i];	
 		}
@@ -1326,28 +1327,27 @@ public class vorbis_block {
 		
 		if ( book.c.lengthlist[best] <= 0 ) {
 			
-			final static_codebook c = book.c;
+			// only entries with a codeword are candidates; book.usedvalues holds just those
+			final float[] e = book.usedvalues;
 			int index,j;
 			float bestf = 0.f;
-			// float[] e = book.valuelist;
 			int e_off = 0;
 			best = -1;
 			
-			for ( index=0; index < book.entries; index++ ) {
+			for ( index=0; index < book.usedlist.length; index++ ) {
 				
-				if ( c.lengthlist[index] > 0 ) {
-					float this_local = 0.f;
-					for ( j=0; j < dim; j++ ) {
-						float val = (book.valuelist[e_off+j]-a[a_off+j]);
-						this_local += val*val;
-					}
-					if ( best == -1 || this_local < bestf ) {
-						bestf=this_local;
-						best=index;
-					}
+				float this_local = 0.f;
+				for ( j=0; j < dim; j++ ) {
+					float val = (e[e_off+j]-a[a_off+j]);
+					this_local += val*val;
+				}
+				if ( best == -1 || this_local < bestf ) {
+					bestf=this_local;
+					best=index;
 				}
 				e_off += dim;	
 			}
+			best = book.usedlist[best];
 		}
 		
 		{
@@ -232,8 +232,17 @@ public class vorbis_dsp_state {
 
 		backend_state.modebits = ilog2( ci.modes );
 
-		backend_state.transform[0][0].mdct_init( ci.blocksizes[0]>>>hs );
-		backend_state.transform[1][0].mdct_init( ci.blocksizes[1]>>>hs );
+		// an encoder set up like an earlier one can borrow its lookups
+		vorbis_setup_cache shared = encp ? vorbis_setup_cache.get( ci ) : null;
+
+		if ( shared != null ) {
+			backend_state.transform[0][0] = shared.transform[0];
+			backend_state.transform[1][0] = shared.transform[1];
+		}
+		else {
+			backend_state.transform[0][0].mdct_init( ci.blocksizes[0]>>>hs );
+			backend_state.transform[1][0].mdct_init( ci.blocksizes[1]>>>hs );
+		}
 
 		// Vorbis I uses only window type 0
 		backend_state.window[0] = ilog2(ci.blocksizes[0])-6;
@@ -241,29 +250,42 @@ public class vorbis_dsp_state {
 
 		if (encp) { // encode/decode differ here
 
-			// analysis always needs an fft
-			backend_state.fft_look[0].drft_init( ci.blocksizes[0] );
-			backend_state.fft_look[1].drft_init( ci.blocksizes[1] );
+			if ( shared != null ) {
+
+				backend_state.fft_look[0] = new drft_lookup( shared.fft_look[0] );
+				backend_state.fft_look[1] = new drft_lookup( shared.fft_look[1] );
+
+				ci.fullbooks = shared.fullbooks;
+				backend_state.psy = shared.psy;
+			}
+			else {
 
-			// finish the codebooks
-			if ( ci.fullbooks == null ) {
+				// analysis always needs an fft
+				backend_state.fft_look[0].drft_init( ci.blocksizes[0] );
+				backend_state.fft_look[1].drft_init( ci.blocksizes[1] );
 
-				// ci.fullbooks=_ogg_calloc(ci.books,sizeof(*ci.fullbooks));
-				ci.fullbooks = new codebook[ ci.books ];
+				// finish the codebooks
+				if ( ci.fullbooks == null ) {
 
-				for ( i=0; i<ci.books; i++ ) {
-					ci.fullbooks[i] = new codebook();
-					ci.fullbooks[i].vorbis_book_init_encode( ci.book_param[i] );
+					// ci.fullbooks=_ogg_calloc(ci.books,sizeof(*ci.fullbooks));
+					ci.fullbooks = new codebook[ ci.books ];
+
+					for ( i=0; i<ci.books; i++ ) {
+						ci.fullbooks[i] = new codebook();
+						ci.fullbooks[i].vorbis_book_init_encode( ci.book_param[i] );
+					}
 				}
-			}
 
-			// backend_state.psy=_ogg_calloc(ci.psys,sizeof(*backend_state.psy));
-			backend_state.psy = new vorbis_look_psy[ ci.psys ];
+				// backend_state.psy=_ogg_calloc(ci.psys,sizeof(*backend_state.psy));
+				backend_state.psy = new vorbis_look_psy[ ci.psys ];
 
-			for ( i=0; i<ci.psys; i++ ) {
-				backend_state.psy[i] = new vorbis_look_psy();
-				backend_state.psy[i]._vp_psy_init( ci.psy_param[i], ci.psy_g_param, ci.blocksizes[ci.psy_param[i].blockflag]/2, vi.rate );
-			 }
+				for ( i=0; i<ci.psys; i++ ) {
+					backend_state.psy[i] = new vorbis_look_psy();
+					backend_state.psy[i]._vp_psy_init( ci.psy_param[i], ci.psy_g_param, ci.blocksizes[ci.psy_param[i].blockflag]/2, vi.rate );
+				}
+
+				vorbis_setup_cache.put( ci, backend_state );
+			}
 
 			analysisp = 1;
 		}
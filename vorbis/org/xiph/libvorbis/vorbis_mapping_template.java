@@ -15,7 +15,7 @@ package org.xiph.libvorbis;
 public class vorbis_mapping_template {
 
 	vorbis_info_mapping0[] map;
-	vorbis_residue_template[] res;
+	vorbis_residue_template[] res;		// null until needed, for templates that load their books lazily
 
 
 	public vorbis_mapping_template( vorbis_info_mapping0[] _map, vorbis_residue_template[] _res ) {
@@ -23,4 +23,23 @@ public class vorbis_mapping_template {
 		map = _map;
 		res = _res;
 	}
+
+	// the residue codebooks make up most of the static tables, and an encoder only ever uses
+	// the ones for its own quality, so templates can defer loading them by overriding load_res()
+	protected vorbis_mapping_template( vorbis_info_mapping0[] _map ) {
+
+		map = _map;
+	}
+
+	protected vorbis_residue_template[] load_res() {
+
+		return null;
+	}
+
+	synchronized vorbis_residue_template[] res() {
+
+		if ( res == null )
+			res = load_res();
+		return res;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+package org.xiph.libvorbis;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Lookups that _vds_shared_init builds for an encoder and that are never written to afterwards:
+// the encoding codebooks, the psychoacoustic look tables (tone curves, ATH, octave and bark maps)
+// and the MDCT trig tables.  They depend only on the setup, so encoders initialized by
+// vorbis_encode_init_vbr with the same (channels, rate, quality) share one copy.
+//
+// The fft lookups are the exception: drft_forward uses the trig cache as scratch, so the cache
+// keeps a pristine template and each encoder gets its own copy, which is still far cheaper than
+// drft_init.
+
+class vorbis_setup_cache {
+
+	private static final Map<String,vorbis_setup_cache> cache = new HashMap<String,vorbis_setup_cache>();
+
+	final codebook[] fullbooks;
+	final vorbis_look_psy[] psy;
+	final mdct_lookup[] transform;		// by block size
+	final drft_lookup[] fft_look;		// templates - copy before use
+
+
+	private vorbis_setup_cache( codec_setup_info ci, private_state b ) {
+
+		fullbooks = ci.fullbooks;
+		psy = b.psy;
+		transform = new mdct_lookup[] { b.transform[0][0], b.transform[1][0] };
+		fft_look = new drft_lookup[] { new drft_lookup( b.fft_look[0] ), new drft_lookup( b.fft_look[1] ) };
+	}
+
+	// the shared lookups for a setup, or null if none have been built yet (or the setup has no key)
+	static vorbis_setup_cache get( codec_setup_info ci ) {
+
+		if ( ci.setup_key == null )
+			return null;
+
+		synchronized ( cache ) {
+			return cache.get( ci.setup_key );
+		}
+	}
+
+	// remember freshly built lookups; call before any encoding has been done with them
+	static void put( codec_setup_info ci, private_state b ) {
+
+		if ( ci.setup_key == null )
+			return;
+
+		synchronized ( cache ) {
+			if ( !cache.containsKey( ci.setup_key ) )
+				cache.put( ci.setup_key, new vorbis_setup_cache( ci, b ) );
+		}
+	}
+}
@@ -82,6 +82,10 @@ public class vorbisenc {
 		if ( !vorbis_encode_setup_vbr( channels, rate, base_quality) )
 			return false;
 
+		// nothing can change the setup between here and vorbis_encode_setup_init, so encoders
+		// initialized with the same arguments can share their lookups
+		vi.codec_setup.setup_key = channels + "/" + rate + "/" + base_quality;
+
 		return vorbis_encode_setup_init();
 	}
 
@@ -942,7 +946,7 @@ public class vorbisenc {
 		int modes = 2;
 		vorbis_info_mapping0[] map = maps[is].map;
 		vorbis_info_mode[] mode = { new vorbis_info_mode( 0, 0, 0, 0), new vorbis_info_mode( 1, 0, 0, 1 ) }; // _mode_template
-		vorbis_residue_template[] res = maps[is].res;
+		vorbis_residue_template[] res = maps[is].res();
 
 		if ( ci.blocksizes[0] == ci.blocksizes[1] )
 			modes=1;